@@ -99,7 +99,7 @@ class Command(val console: ScalaREPL, val variables: ConsoleVariables) { command
     } println(s"${error.level.toString}: ${exceptionToString(error.exception)}")
   }
 
-  def verify(mole: Mole)(implicit newFile: NewFile, fileService: FileService): Unit = Validation(mole).foreach(println)
+  def verify(mole: Mole)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference): Unit = Validation(mole).foreach(println)
 
   def encrypted(implicit cypher: Cypher): String = encrypt(Console.askPassword())
 
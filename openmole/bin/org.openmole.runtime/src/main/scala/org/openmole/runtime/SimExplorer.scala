@@ -92,7 +92,7 @@ object SimExplorer extends JavaLogger {
             implicit val preference = Preference.memory()
             implicit val threadProvider = ThreadProvider(config.nbThread.get + 5)
             implicit val fileService = FileService()
-            implicit val eventDispatcher = EventDispatcher()
+            implicit val eventDispatcher = EventDispatcher(threadProvider.threadFactory)
             implicit val loggerService = if (config.debug) LoggerService(level = Some(finest)) else LoggerService()
 
             try {
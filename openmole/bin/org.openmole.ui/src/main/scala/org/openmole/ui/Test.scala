@@ -38,7 +38,7 @@ object Test {
       implicit val authenticationStore = Services.authenticationStore(ws)
       implicit val fileService = FileService()
       implicit val randomProvider = RandomProvider(seeder.newRNG)
-      implicit val eventDispatcher = EventDispatcher()
+      implicit val eventDispatcher = EventDispatcher(threadProvider.threadFactory)
       implicit val outputRedirection = OutputRedirection()
       implicit val networkService = NetworkService(None)
       implicit val fileServiceCache = FileServiceCache()
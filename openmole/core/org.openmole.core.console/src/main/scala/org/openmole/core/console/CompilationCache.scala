@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.console
+
+import java.io.{ DataInputStream, DataOutputStream, File, IOException }
+import java.nio.file.{ Files, StandardCopyOption }
+
+import org.openmole.tool.file._
+import org.openmole.tool.stream._
+
+import scala.tools.nsc.io.AbstractFile
+
+/**
+ * Content addressed cache of the byte code of compiled scripts. A cached script is evaluated by loading its classes in
+ * a dedicated class loader, without the compiler.
+ */
+object CompilationCache {
+
+  val Suffix = ".classes"
+
+  private val Magic = 0x4f4d4343
+  private val Version = 1
+
+  /**
+   * Byte code of a compiled script
+   *
+   * @param classes the classes of the interpreted lines, by binary name
+   * @param evalClass the class holding the value of the script
+   * @param resultMethod the static method returning the value of the script
+   */
+  case class ByteCode(classes: Vector[(String, Array[Byte])], evalClass: String, resultMethod: String)
+
+  /**
+   * Collect the byte code of the classes of the interpreted lines in the output directory of a REPL
+   */
+  def byteCode(outputDirectory: AbstractFile, evalClass: String, resultMethod: String) = {
+    def classes(directory: AbstractFile, pkg: String): Iterator[(String, Array[Byte])] =
+      directory.iterator.flatMap { f ⇒
+        if (f.isDirectory) classes(f, pkg + f.name + ".")
+        else if (f.name.endsWith(".class")) Iterator(pkg + f.name.stripSuffix(".class") → f.toByteArray)
+        else Iterator.empty
+      }
+
+    val lines = outputDirectory.iterator.filter(f ⇒ f.isDirectory && f.name.startsWith("$line"))
+    ByteCode(lines.flatMap(l ⇒ classes(l, l.name + ".")).toVector, evalClass, resultMethod)
+  }
+
+  def file(directory: File, key: String) = new File(directory, key + Suffix)
+
+  /**
+   * Load the byte code of a script, the entry is touched so that it is kept by the cleaning of the cache
+   */
+  def load(directory: File, key: String): Option[ByteCode] = {
+    val f = file(directory, key)
+    if (!f.exists) None
+    else
+      try withClosable(new DataInputStream(f.bufferedInputStream)) { in ⇒
+        if (in.readInt != Magic || in.readInt != Version) None
+        else {
+          val evalClass = in.readUTF
+          val resultMethod = in.readUTF
+          val classes =
+            Vector.fill(in.readInt) {
+              val name = in.readUTF
+              val bytes = new Array[Byte](in.readInt)
+              in.readFully(bytes)
+              name → bytes
+            }
+          f.setLastModified(System.currentTimeMillis)
+          Some(ByteCode(classes, evalClass, resultMethod))
+        }
+      }
+      catch {
+        case e: IOException ⇒ None
+      }
+  }
+
+  /**
+   * Store the byte code of a script, the file is replaced atomically so that concurrent sessions never read a partial
+   * entry.
+   */
+  def store(directory: File, key: String, byteCode: ByteCode) = {
+    directory.mkdirs()
+    val tmp = Files.createTempFile(directory.toPath, key, ".tmp")
+
+    try {
+      withClosable(new DataOutputStream(tmp.toFile.bufferedOutputStream())) { out ⇒
+        out.writeInt(Magic)
+        out.writeInt(Version)
+        out.writeUTF(byteCode.evalClass)
+        out.writeUTF(byteCode.resultMethod)
+        out.writeInt(byteCode.classes.size)
+        for ((name, bytes) ← byteCode.classes) {
+          out.writeUTF(name)
+          out.writeInt(bytes.length)
+          out.write(bytes)
+        }
+      }
+
+      Files.move(tmp, file(directory, key).toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+    catch {
+      case t: Throwable ⇒
+        Files.deleteIfExists(tmp)
+        throw t
+    }
+  }
+
+  def remove(directory: File, key: String) = file(directory, key).delete()
+
+  /**
+   * Load the classes of a script and return its value
+   */
+  def evaluate(byteCode: ByteCode, parent: ClassLoader): Any = {
+    val classLoader = new ByteCodeClassLoader(byteCode.classes.toMap, parent)
+    val evalClass = Class.forName(byteCode.evalClass, true, classLoader)
+    val method = evalClass.getMethods.find(_.getName == byteCode.resultMethod).getOrElse(throw new NoSuchMethodException(s"${byteCode.evalClass}.${byteCode.resultMethod}"))
+    try method.invoke(null)
+    catch {
+      case e: java.lang.reflect.InvocationTargetException ⇒ throw e.getCause
+    }
+  }
+
+  /**
+   * Class loader defining the classes of a script from their byte code, they take precedence over the classes of the
+   * parent since the line packages of the REPL are reused from one script to the other.
+   */
+  class ByteCodeClassLoader(classes: Map[String, Array[Byte]], parent: ClassLoader) extends ClassLoader(parent) {
+    override def loadClass(name: String, resolve: Boolean): Class[_] = getClassLoadingLock(name).synchronized {
+      classes.get(name) match {
+        case Some(bytes) ⇒
+          val c = Option(findLoadedClass(name)).getOrElse(defineClass(name, bytes, 0, bytes.length))
+          if (resolve) resolveClass(c)
+          c
+        case None ⇒ super.loadClass(name, resolve)
+      }
+    }
+  }
+
+}
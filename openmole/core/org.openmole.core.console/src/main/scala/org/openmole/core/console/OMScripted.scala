@@ -143,9 +143,13 @@ class OMScripted(val factory: ScriptEngineFactory, settings: Settings, out: JPri
   @throws[ScriptException]
   def eval(reader: Reader, context: ScriptContext): Object = compile(stringFromReader(reader), context).eval(context)
 
-  private class WrappedRequest(val req: intp.Request) extends CompiledScript {
+  class WrappedRequest(val req: intp.Request) extends CompiledScript {
     var first = true
 
+    /* Class and static method giving the value of the request */
+    def evalPath = req.lineRep.evalPath
+    def resultName = req.lineRep.resultName
+
     /* First time, cause lazy evaluation of a memoized result.
      * Subsequently, instantiate a new object for evaluation.
      * Per the API: Checked exception types thrown by underlying scripting implementations
@@ -235,13 +235,24 @@ class ScalaREPL(priorityBundles: ⇒ Seq[Bundle], jars: Seq[JFile], quiet: Boole
   //    }
   //  }
 
-  def compile(code: String): ScalaREPL.Compiled = synchronized {
+  def compile(code: String): ScalaREPL.Compiled = compileToByteCode(code)._1
+
+  /**
+   * Compile the code, the byte code of the compiled classes is returned along with the evaluation function so that it
+   * can be evaluated later without the compiler, see [[CompilationCache]].
+   */
+  def compileToByteCode(code: String): (ScalaREPL.Compiled, Option[CompilationCache.ByteCode]) = synchronized {
     omIMain.errorMessage = Nil
     val scripted = new OMScripted(new nsc.interpreter.Scripted.Factory, settings, out, omIMain)
 
     try {
       val compiled = scripted.compile("\n" + omIMain.firstLineTag + "\n" + code)
-      () ⇒ compiled.eval()
+      val byteCode =
+        compiled match {
+          case r: scripted.WrappedRequest ⇒ Some(CompilationCache.byteCode(omIMain.replOutput.dir, r.evalPath, r.resultName))
+          case _                          ⇒ None
+        }
+      (() ⇒ compiled.eval(), byteCode)
     }
     catch {
       case e: Throwable ⇒ throw messageToException(e, omIMain.errorMessage, code)
@@ -292,6 +303,24 @@ object Interpreter {
     fileService.deleteWhenGarbageCollected(classDirectory)
     new Interpreter(priorityBundles, jars, quiet, classDirectory)
   }
+
+  // the class loaders of the jars are shared by the evaluations of the scripts, they are never closed since the
+  // classes they loaded remain referenced by the values of the scripts
+  private val jarClassLoaders = collection.mutable.HashMap[Seq[JFile], URLClassLoader]()
+
+  private def jarClassLoader(jars: Seq[JFile]) = jarClassLoaders.synchronized {
+    jarClassLoaders.getOrElseUpdate(jars.map(_.getCanonicalFile), new URLClassLoader(jars.toArray.map(_.toURI.toURL)))
+  }
+
+  /**
+   * Class loader for the byte code of the scripts compiled with these bundles and jars, it resolves the same classes
+   * as the class loader of the REPL.
+   */
+  def classLoader(priorityBundles: Seq[Bundle], jars: Seq[JFile]): ClassLoader = {
+    val jarLoaders = if (jars.isEmpty) List() else List(jarClassLoader(jars))
+    if (Activator.osgi) new CompositeClassLoader(priorityBundles.map(_.classLoader) ++ jarLoaders ++ List(classOf[OSGiScalaCompiler].getClassLoader): _*)
+    else new CompositeClassLoader(jarLoaders ++ List(classOf[OSGiScalaCompiler].getClassLoader): _*)
+  }
 }
 
 class Interpreter(priorityBundles: ⇒ Seq[Bundle], jars: Seq[JFile], quiet: Boolean, classDirectory: java.io.File) {
@@ -300,5 +329,20 @@ class Interpreter(priorityBundles: ⇒ Seq[Bundle], jars: Seq[JFile], quiet: Boo
     val s = new ScalaREPL(priorityBundles, jars, quiet, classDirectory, 1)
     s.compile(code)
   }
+
+  /**
+   * Evaluate the code and return the byte code of the compiled classes along with the value
+   */
+  def evalToByteCode(code: String): (Any, Option[CompilationCache.ByteCode]) = synchronized {
+    val s = new ScalaREPL(priorityBundles, jars, quiet, classDirectory, 1)
+    val (compiled, byteCode) = s.compileToByteCode(code)
+    (compiled(), byteCode)
+  }
+
+  /**
+   * Class loader for the byte code of the scripts compiled by this interpreter, it resolves the same classes as the
+   * class loader of the REPL.
+   */
+  def classLoader: ClassLoader = Interpreter.classLoader(priorityBundles, jars)
 }
 
@@ -56,7 +56,7 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
    * @return Some(variable) if a variable with the given name is present None
    * otherwise
    */
-  def variable[T](name: String): Option[Variable[T]] = variables.get(name).asInstanceOf[Option[Variable[T]]]
+  def variable[T](name: String): Option[Variable[T]] = get(name).asInstanceOf[Option[Variable[T]]]
 
   /**
    * Get a variable given a prototype name. This method get the variable by its
@@ -66,7 +66,7 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
    * @return Some(variable) if a variable with the given name is present None
    * otherwise
    */
-  def variable[T](p: Val[T]): Option[Variable[T]] = variables.get(p.name).map(_.asInstanceOf[Variable[T]])
+  def variable[T](p: Val[T]): Option[Variable[T]] = get(p.name).map(_.asInstanceOf[Variable[T]])
 
   /**
    * Get a variable value given its name.
@@ -75,7 +75,7 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
    * @return Some(value) if a variable with the given name is present None
    * otherwise
    */
-  def option[T](name: String): Option[T] = variables.get(name).map(_.asInstanceOf[Variable[T]].value)
+  def option[T](name: String): Option[T] = get(name).map(_.asInstanceOf[Variable[T]].value)
 
   /**
    * Get a variable value given a prototype name. This method get the variable by its
@@ -121,7 +121,7 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
    * @param value the value of the variable
    * @return the new context
    */
-  def +[T](p: Val[T], value: T) = Context.fromMap(variables + (p.name → Variable[T](p, value)))
+  def +[T](p: Val[T], value: T): Context = this + Variable[T](p, value)
 
   /**
    * Build a new context containing the variables of the current context plus the
@@ -137,14 +137,14 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
    * @param v additional variable
    * @return
    */
-  def +[T](v: Variable[T]) = Context.fromMap(variables + (v.prototype.name → v))
+  def +[T](v: Variable[T]): Context = Context.fromMap(variables + (v.prototype.name → v))
 
   /**
    * Concatenate the current context with the provided context
    * @param ctx context to append
    * @return
    */
-  def +(ctx: Context) = Context.fromMap(variables ++ ctx)
+  def +(ctx: Context): Context = Context.fromMap(variables ++ ctx)
 
   override def +[B1 >: Variable[_]](kv: (String, B1)) = variables + kv
 
@@ -193,7 +193,7 @@ trait Context extends Map[String, Variable[_]] with MapLike[String, Variable[_],
 
   override def empty = Context.empty
 
-  def get(key: String) = variables.get(key)
+  def get(key: String): Option[Variable[_]] = variables.get(key)
   def get[T](proto: Val[T]): Option[T] = option[T](proto)
 
   def update[T](p: Val[T], v: T) = this + Variable(p, v)
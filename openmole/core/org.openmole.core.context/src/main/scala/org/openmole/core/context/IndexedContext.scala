@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.context
+
+import scala.collection.immutable.TreeMap
+
+object ContextSlots {
+  def apply(names: Iterable[String]) = new ContextSlots(names.toVector.distinct.sorted.toArray)
+}
+
+/**
+ * Interning of the names of the prototypes of a mole to integer slots, it is built once per mole execution so that
+ * the contexts of the jobs store their variables in arrays indexed by slot.
+ *
+ * @param names the interned names
+ */
+class ContextSlots(val names: Array[String]) {
+
+  private val slots = {
+    val map = new java.util.HashMap[String, Integer](names.length * 2)
+    for ((n, i) ← names.zipWithIndex) map.put(n, i)
+    map
+  }
+
+  def size = names.length
+
+  /** Slot of a name, -1 if the name is not interned */
+  def slot(name: String): Int = {
+    val s = slots.get(name)
+    if (s == null) -1 else s.intValue
+  }
+
+  def empty: Context = new IndexedContext(this, new Array[Variable[_]](size), TreeMap.empty)
+
+  /**
+   * A context with the same variables, stored in the slots
+   */
+  def apply(context: Context): Context =
+    context match {
+      case c: IndexedContext if c.slots eq this ⇒ c
+      case c                                    ⇒ empty ++ c.values
+    }
+
+  def apply(variables: Traversable[Variable[_]]): Context = empty ++ variables
+
+}
+
+/**
+ * Context storing the variables of the interned prototypes in an array indexed by slot. The array is copied on
+ * write, the variables which are not interned are stored in a tree map like in the default context. The variables are
+ * iterated in the order of their names as in the default context.
+ *
+ * @param slots the interning of the prototypes of the mole
+ * @param slotValues the variables of the interned prototypes, null for the empty slots
+ * @param overflow the variables of the prototypes which are not interned
+ */
+class IndexedContext(val slots: ContextSlots, slotValues: Array[Variable[_]], overflow: TreeMap[String, Variable[_]]) extends Context {
+
+  /** Only built if a tree map is required, the lookups and the iteration read the slots and the overflow directly */
+  @transient lazy val variables: TreeMap[String, Variable[_]] = TreeMap.empty[String, Variable[_]] ++ iterator
+
+  override def get(key: String): Option[Variable[_]] = {
+    val s = slots.slot(key)
+    if (s >= 0) Option(slotValues(s)) else overflow.get(key)
+  }
+
+  /**
+   * Merge of the slots, interned in the order of their names, and of the overflow, so that the variables are
+   * iterated in the order of their names
+   */
+  override def iterator: Iterator[(String, Variable[_])] =
+    new Iterator[(String, Variable[_])] {
+      private val slotted = slotValues.iterator.filter(_ != null).buffered
+      private val other = overflow.valuesIterator.buffered
+
+      def hasNext = slotted.hasNext || other.hasNext
+
+      def next() = {
+        val v =
+          if (!other.hasNext) slotted.next()
+          else if (!slotted.hasNext) other.next()
+          else if (slotted.head.prototype.name < other.head.prototype.name) slotted.next()
+          else other.next()
+
+        v.prototype.name → v
+      }
+    }
+
+  override def +[T](v: Variable[T]): Context = {
+    val s = slots.slot(v.prototype.name)
+    if (s >= 0) {
+      val newValues = slotValues.clone()
+      newValues(s) = v
+      new IndexedContext(slots, newValues, overflow)
+    }
+    else new IndexedContext(slots, slotValues, overflow + (v.prototype.name → v))
+  }
+
+  override def +(ctx: Context): Context = added(ctx.values)
+  override def ++(vs: Traversable[Variable[_]]): Context = added(vs)
+
+  override def -(name: String): Context = removed(Traversable(name))
+  override def --(names: Traversable[String]): Context = removed(names)
+
+  private def added(vs: Traversable[Variable[_]]) = {
+    val newValues = slotValues.clone()
+    var newOverflow = overflow
+
+    for (v ← vs) {
+      val s = slots.slot(v.prototype.name)
+      if (s >= 0) newValues(s) = v
+      else newOverflow += v.prototype.name → v
+    }
+
+    new IndexedContext(slots, newValues, newOverflow)
+  }
+
+  private def removed(names: Traversable[String]) = {
+    val newValues = slotValues.clone()
+    var newOverflow = overflow
+
+    for (name ← names) {
+      val s = slots.slot(name)
+      if (s >= 0) newValues(s) = null
+      else newOverflow -= name
+    }
+
+    new IndexedContext(slots, newValues, newOverflow)
+  }
+
+}
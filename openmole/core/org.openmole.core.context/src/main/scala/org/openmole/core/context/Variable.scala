@@ -53,6 +53,14 @@ object Variable {
    */
   def unsecure[@specialized T](p: Val[T], v: Any): Variable[T] = Variable[T](p, v.asInstanceOf[T])
 
+  /**
+   * Constructors of variables of primitive types, the value is stored unboxed in the specialized variable
+   */
+  def double(p: Val[Double], v: Double): Variable[Double] = new Variable[Double](p, v)
+  def int(p: Val[Int], v: Int): Variable[Int] = new Variable[Int](p, v)
+  def long(p: Val[Long], v: Long): Variable[Long] = new Variable[Long](p, v)
+  def boolean(p: Val[Boolean], v: Boolean): Variable[Boolean] = new Variable[Boolean](p, v)
+
   /**
    * Seed for rng
    */
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.context
+
+import org.scalatest._
+
+class IndexedContextSpec extends FlatSpec with Matchers {
+
+  val a = Val[Int]("a")
+  val b = Val[String]("b")
+  val d = Val[Double]("d")
+  // not interned
+  val c = Val[Int]("c")
+  val e = Val[Long]("e")
+
+  val slots = ContextSlots(Seq("d", "a", "b"))
+
+  def reference(variables: Variable[_]*) = Context.fromMap(variables.map(v ⇒ v.prototype.name → v))
+
+  def same(indexed: Context, expected: Context) = {
+    indexed.toVector should equal(expected.toVector)
+    indexed.keys.toVector should equal(expected.keys.toVector)
+    indexed.size should equal(expected.size)
+    for (n ← Seq("a", "b", "c", "d", "e", "f")) indexed.get(n) should equal(expected.get(n))
+    indexed.variables should equal(expected.variables)
+  }
+
+  "An indexed context" should "add variables as a default context" in {
+    val vs = Seq(Variable(b, "b"), Variable(c, 3), Variable(a, 1))
+    same(slots.empty + Variable(b, "b") + Variable(c, 3) + Variable(a, 1), reference(vs: _*))
+    same(slots.empty ++ vs, reference(vs: _*))
+    same(slots.empty + reference(vs: _*), reference(vs: _*))
+    same(slots(vs), reference(vs: _*))
+  }
+
+  it should "replace the variables with the same name" in {
+    val context = slots(Seq(Variable(a, 1), Variable(c, 3)))
+    same(context + Variable(a, 2) + Variable(c, 4), reference(Variable(a, 2), Variable(c, 4)))
+    same(context ++ Seq(Variable(a, 5), Variable(c, 6), Variable(d, 1.0)), reference(Variable(a, 5), Variable(c, 6), Variable(d, 1.0)))
+  }
+
+  it should "remove variables as a default context" in {
+    val vs = Seq(Variable(a, 1), Variable(b, "b"), Variable(c, 3), Variable(d, 2.0), Variable(e, 5L))
+    val context = slots(vs)
+    same(context - "a", reference(vs.filterNot(_.prototype == a): _*))
+    same(context - "c", reference(vs.filterNot(_.prototype == c): _*))
+    same(context - "f", reference(vs: _*))
+    same(context -- Seq("b", "e", "f"), reference(Variable(a, 1), Variable(c, 3), Variable(d, 2.0)))
+    same(context -- vs.map(_.prototype.name), Context.empty)
+  }
+
+  it should "iterate the interned and overflow variables in the order of their names" in {
+    val vs = Seq(Variable(e, 5L), Variable(d, 2.0), Variable(c, 3), Variable(b, "b"), Variable(a, 1))
+    slots(vs).keys.toVector should equal(Vector("a", "b", "c", "d", "e"))
+    slots(vs).values.toVector should equal(reference(vs: _*).values.toVector)
+    (slots.empty + Variable(e, 5L) + Variable(c, 3)).keys.toVector should equal(Vector("c", "e"))
+  }
+
+  it should "not be modified by the contexts derived from it" in {
+    val context = slots(Seq(Variable(a, 1), Variable(c, 3)))
+    context + Variable(a, 2) + Variable(e, 1L)
+    context -- Seq("a", "c")
+    same(context, reference(Variable(a, 1), Variable(c, 3)))
+  }
+
+}
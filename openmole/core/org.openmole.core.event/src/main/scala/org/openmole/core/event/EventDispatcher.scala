@@ -17,36 +17,203 @@
 
 package org.openmole.core.event
 
+import java.util.concurrent.{ ConcurrentMap, ExecutorService, Executors, LinkedBlockingQueue, ThreadFactory, ThreadPoolExecutor, TimeUnit }
 import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
 
-import scala.collection.mutable.{ ListBuffer, WeakHashMap }
+import com.google.common.collect.MapMaker
+import org.openmole.tool.logger.JavaLogger
+
+import scala.annotation.tailrec
+
+object EventDispatcher extends JavaLogger {
+  /** Maximum number of threads delivering the events to the asynchronous listeners */
+  def defaultAsyncThreads = math.max(4, Runtime.getRuntime.availableProcessors)
+
+  def apply(): EventDispatcher = apply(daemonFactory)
+
+  /**
+   * @param threadFactory factory of the threads delivering the events to the asynchronous listeners, typically the
+   *                      one of the thread provider
+   */
+  def apply(threadFactory: ThreadFactory, asyncThreads: Int = defaultAsyncThreads): EventDispatcher = new EventDispatcher(threadFactory, asyncThreads)
 
-object EventDispatcher {
-  def apply() = new EventDispatcher
   case class EventListnerKey(obj: Any, listner: Listner[_])
+
+  /**
+   * Behaviour of an asynchronous listener when its queue is full
+   */
+  sealed trait Overflow
+
+  object Overflow {
+    /** The triggering thread waits for the listener to process the pending events */
+    case object Block extends Overflow
+    /** The oldest pending event is discarded */
+    case object DropOldest extends Overflow
+    /**
+     * The last pending event of the same class from the same source is discarded and the new one is queued, so the
+     * events of a source keep the order in which they have been triggered. The oldest event is discarded if there is
+     * no such event.
+     */
+    case object Coalesce extends Overflow
+  }
+
+  /**
+   * Asynchronous delivery of the events to a listener
+   *
+   * @param queueSize the maximum number of pending events
+   * @param overflow the behaviour when the queue is full
+   */
+  case class Async(queueSize: Int = 10000, overflow: Overflow = Overflow.Block)
+
+  sealed trait Registration {
+    def listener: Listner[Any]
+  }
+
+  case class Synchronous(listener: Listner[Any]) extends Registration
+
+  /**
+   * Queue of the events of an asynchronous listener. The events are processed one at a time by a task of the
+   * executor, which is scheduled when the first event is queued, so the listener receives the events in the order they
+   * have been triggered. With the Block policy a listener should not trigger events to itself.
+   */
+  class ListenerQueue(val listener: Listner[Any], async: Async, executor: ExecutorService) extends Registration {
+    private val pending = new java.util.ArrayDeque[(Any, Event[Any])]()
+    private var scheduled = false
+
+    def enqueue(obj: Any, event: Event[Any]) = {
+      val schedule = pending.synchronized {
+        if (pending.size >= async.queueSize) overflow(obj, event)
+        pending.addLast(obj → event)
+        val schedule = !scheduled
+        scheduled = true
+        schedule
+      }
+
+      if (schedule) executor.execute(drain)
+    }
+
+    /**
+     * Make room for an event in the full queue
+     */
+    private def overflow(obj: Any, event: Event[Any]) =
+      async.overflow match {
+        case Overflow.Block      ⇒ while (pending.size >= async.queueSize) pending.wait()
+        case Overflow.DropOldest ⇒ pending.removeFirst()
+        case Overflow.Coalesce ⇒
+          // the new event is queued after every pending event, removing an older one does not change the order
+          val it = pending.descendingIterator
+          var removed = false
+          while (!removed && it.hasNext) {
+            val (o, e) = it.next
+            if ((o.asInstanceOf[AnyRef] eq obj.asInstanceOf[AnyRef]) && e.getClass == event.getClass) {
+              it.remove()
+              removed = true
+            }
+          }
+          if (!removed) pending.removeFirst()
+      }
+
+    private val drain = new Runnable {
+      override def run() = {
+        @tailrec def process(): Unit = {
+          val next = pending.synchronized {
+            if (pending.isEmpty) {
+              scheduled = false
+              None
+            }
+            else {
+              val event = pending.removeFirst()
+              pending.notifyAll()
+              Some(event)
+            }
+          }
+
+          next match {
+            case Some((obj, event)) ⇒
+              try listener.lift((obj, event))
+              catch {
+                case t: Throwable ⇒ Log.logger.log(Level.WARNING, s"Error in the listener of $obj for event $event", t)
+              }
+              process()
+            case None ⇒
+          }
+        }
+
+        process()
+      }
+    }
+  }
+
+  private def daemonFactory = new ThreadFactory {
+    val default = Executors.defaultThreadFactory()
+    override def newThread(r: Runnable) = {
+      val t = default.newThread(r)
+      t.setDaemon(true)
+      t
+    }
+  }
+
 }
 
-class EventDispatcher {
+/**
+ * Dispatch the events of objects to their listeners. The listeners are called synchronously by the triggering thread
+ * unless they are registered with listenAsync, in which case they are called by a bounded pool of threads created by
+ * the thread factory. The registry is a concurrent map with weak keys, the sources of events are compared by identity.
+ *
+ * @param threadFactory factory of the threads of the asynchronous listeners
+ * @param asyncThreads maximum number of threads of the asynchronous listeners, they are released when idle
+ */
+class EventDispatcher(threadFactory: ThreadFactory, asyncThreads: Int) {
+
+  import EventDispatcher._
 
   private val _eventId = new AtomicLong
-  private lazy val listenerMap = new WeakHashMap[Any, collection.mutable.Set[Any]]
+  private val listenerMap: ConcurrentMap[AnyRef, Vector[Registration]] = new MapMaker().weakKeys().makeMap[AnyRef, Vector[Registration]]()
+  private lazy val executor = {
+    val pool = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue[Runnable](), threadFactory)
+    pool.allowCoreThreadTimeOut(true)
+    pool
+  }
 
   def eventId = _eventId.getAndIncrement()
 
-  def listen[T](obj: T)(listener: Listner[T]) = listenerMap.synchronized {
-    listenerMap.getOrElseUpdate(obj, collection.mutable.Set()) += listener.asInstanceOf[Listner[Any]]
-    EventDispatcher.EventListnerKey(obj, listener)
+  def listen[T](obj: T)(listener: Listner[T]) = register(obj, Synchronous(listener.asInstanceOf[Listner[Any]]))
+
+  /**
+   * Register a listener called by a dedicated thread, so that a slow listener does not slow down the triggering
+   * thread
+   */
+  def listenAsync[T](obj: T, async: Async = Async())(listener: Listner[T]) =
+    register(obj, new ListenerQueue(listener.asInstanceOf[Listner[Any]], async, executor))
+
+  private def register(obj: Any, registration: Registration) = {
+    def add(registrations: Vector[Registration], added: Vector[Registration]) =
+      if (registrations.exists(_.listener == registration.listener)) registrations else registrations ++ added
+
+    listenerMap.merge(obj.asInstanceOf[AnyRef], Vector(registration), (r: Vector[Registration], a: Vector[Registration]) ⇒ add(r, a))
+    EventDispatcher.EventListnerKey(obj, registration.listener)
   }
 
-  def unregister(key: EventDispatcher.EventListnerKey) = listenerMap.synchronized {
-    listenerMap.get(key.obj).foreach(_ -= key.listner)
+  def unregister(key: EventDispatcher.EventListnerKey) = {
+    def remove(obj: AnyRef, registrations: Vector[Registration]) = {
+      val remaining = registrations.filterNot(_.listener == key.listner)
+      if (remaining.isEmpty) null else remaining
+    }
+
+    listenerMap.computeIfPresent(key.obj.asInstanceOf[AnyRef], (o: AnyRef, r: Vector[Registration]) ⇒ remove(o, r))
   }
 
   def trigger[T](obj: T, event: Event[T]) = {
-    val listeners = listenerMap.synchronized { listenerMap.get(obj).getOrElse(List.empty) }
-    for {
-      l ← listeners
-    } l.asInstanceOf[Listner[T]].lift(obj, event)
+    val registrations = if (obj == null) null else listenerMap.get(obj.asInstanceOf[AnyRef])
+
+    if (registrations != null)
+      for {
+        r ← registrations
+      } r match {
+        case Synchronous(l)   ⇒ l.asInstanceOf[Listner[T]].lift(obj, event)
+        case q: ListenerQueue ⇒ q.enqueue(obj, event.asInstanceOf[Event[Any]])
+      }
   }
 
 }
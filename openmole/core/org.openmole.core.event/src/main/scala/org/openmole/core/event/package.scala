@@ -25,6 +25,7 @@ package object event {
 
   implicit class EventDispatcherDecorator[T](o: T) {
     def listen(listener: Listner[T])(implicit eventDispatcher: EventDispatcher) = eventDispatcher.listen(o)(listener)
+    def listenAsync(async: EventDispatcher.Async = EventDispatcher.Async())(listener: Listner[T])(implicit eventDispatcher: EventDispatcher) = eventDispatcher.listenAsync(o, async)(listener)
   }
 
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.event
+
+import java.util.concurrent.{ CountDownLatch, TimeUnit }
+
+import org.scalatest._
+
+import scala.collection.mutable.ListBuffer
+
+object EventDispatcherSpec {
+  class Source
+  case class A(i: Int) extends Event[Source]
+  case class B(i: Int) extends Event[Source]
+}
+
+class EventDispatcherSpec extends FlatSpec with Matchers {
+
+  import EventDispatcherSpec._
+
+  /**
+   * The listener is kept busy by the first event so that the following ones are queued, the events are released
+   * once trigger has been executed
+   */
+  def deliveries(async: EventDispatcher.Async, expected: Int)(trigger: (EventDispatcher, Source) ⇒ Unit) = {
+    val dispatcher = EventDispatcher()
+    val source = new Source
+    val received = ListBuffer[Event[Source]]()
+    val busy = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    val delivered = new CountDownLatch(expected)
+
+    dispatcher.listenAsync(source, async) {
+      case (_, e) ⇒
+        if (e == A(0)) {
+          busy.countDown()
+          release.await()
+        }
+        received.synchronized { received += e }
+        delivered.countDown()
+    }
+
+    dispatcher.trigger(source, A(0))
+    busy.await(10, TimeUnit.SECONDS) should equal(true)
+    trigger(dispatcher, source)
+    release.countDown()
+
+    delivered.await(10, TimeUnit.SECONDS) should equal(true)
+    // leave the time to deliver unexpected events
+    Thread.sleep(100)
+    received.synchronized { received.toVector }
+  }
+
+  "The DropOldest policy" should "discard the oldest pending event" in {
+    val received = deliveries(EventDispatcher.Async(2, EventDispatcher.Overflow.DropOldest), 3) { (d, s) ⇒
+      d.trigger(s, A(1))
+      d.trigger(s, A(2))
+      d.trigger(s, A(3))
+    }
+
+    received should equal(Vector(A(0), A(2), A(3)))
+  }
+
+  "The Coalesce policy" should "discard the pending event of the same class and source and keep the order" in {
+    val received = deliveries(EventDispatcher.Async(2, EventDispatcher.Overflow.Coalesce), 3) { (d, s) ⇒
+      d.trigger(s, A(1))
+      d.trigger(s, B(1))
+      d.trigger(s, A(2))
+    }
+
+    received should equal(Vector(A(0), B(1), A(2)))
+  }
+
+  it should "discard the oldest event if no event of the same class and source is pending" in {
+    val received = deliveries(EventDispatcher.Async(2, EventDispatcher.Overflow.Coalesce), 3) { (d, s) ⇒
+      d.trigger(s, A(1))
+      d.trigger(s, A(2))
+      d.trigger(s, B(1))
+    }
+
+    received should equal(Vector(A(0), A(2), B(1)))
+  }
+
+  "The Block policy" should "deliver every event and block the triggering thread while the queue is full" in {
+    val received = deliveries(EventDispatcher.Async(1, EventDispatcher.Overflow.Block), 3) { (d, s) ⇒
+      d.trigger(s, A(1))
+
+      val blocked = new Thread(new Runnable { def run() = d.trigger(s, A(2)) })
+      blocked.setDaemon(true)
+      blocked.start()
+      blocked.join(500)
+      blocked.isAlive should equal(true)
+    }
+
+    received should equal(Vector(A(0), A(1), A(2)))
+  }
+
+}
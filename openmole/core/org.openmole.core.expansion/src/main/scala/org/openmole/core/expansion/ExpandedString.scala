@@ -23,10 +23,8 @@ import org.openmole.core.context.{ Context, Val }
 import org.openmole.core.exception.UserBadDataError
 import org.openmole.core.fileservice.FileService
 import org.openmole.core.workspace.NewFile
-import org.openmole.tool.stream.{ StringInputStream, StringOutputStream }
 import org.openmole.tool.random._
 
-import scala.collection.mutable.ListBuffer
 import scala.util.Try
 
 /**
@@ -38,7 +36,19 @@ object ExpandedString {
   implicit def fromTraversableOfStringToTraversableOfVariableExpansion[T <: Traversable[String]](t: T) = t.map(ExpandedString(_))
   implicit def fromFileToExpandedString(f: java.io.File) = ExpandedString(f.getPath)
 
-  def apply(s: String): FromContext[String] = apply(new StringInputStream(s))
+  /**
+   * Maximum number of parsed strings kept in the parse cache, only the strings shorter than parseCacheMaxLength are
+   * cached (paths, commands...), large templates are parsed at each expansion
+   */
+  val parseCacheSize = 10000
+  val parseCacheMaxLength = 4096
+
+  private val parseCache =
+    new java.util.LinkedHashMap[String, Vector[ExpandedElement]](16, 0.75f, true) {
+      override def removeEldestEntry(eldest: java.util.Map.Entry[String, Vector[ExpandedElement]]) = size > parseCacheSize
+    }
+
+  def apply(s: String): FromContext[String] = fromElements(parse(s))
 
   /**
    * Expand an input stream as an [[FromContext]]
@@ -46,63 +56,112 @@ object ExpandedString {
    * @return
    */
   def apply(is: InputStream): FromContext[String] = {
-    val expandedElements = ListBuffer[ExpandedElement]()
+    val content = new java.lang.StringBuilder
+    var c = is.read
+    while (c != -1) {
+      content.append(c.toChar)
+      c = is.read
+    }
+    apply(content.toString)
+  }
+
+  /**
+   * Parse a string in expanded elements. The parsed elements are cached, so the code elements of a string and their
+   * compiled closures are shared by all the expansions of this string.
+   * @param s
+   * @return
+   */
+  def parse(s: String): Vector[ExpandedElement] =
+    if (s.length > parseCacheMaxLength) parseElements(s)
+    else {
+      def cached = parseCache.synchronized { Option(parseCache.get(s)) }
+
+      cached getOrElse {
+        val elements = parseElements(s)
+        parseCache.synchronized { parseCache.put(s, elements) }
+        elements
+      }
+    }
 
-    val it = Iterator.continually(is.read).takeWhile(_ != -1)
+  private def parseElements(s: String): Vector[ExpandedElement] = {
+    val expandedElements = Vector.newBuilder[ExpandedElement]
+    val os = new java.lang.StringBuilder
+    var i = 0
 
-    def nextToExpand(it: Iterator[Int]) = {
+    def nextToExpand() = {
       var opened = 1
-      val res = new StringBuffer
-      while (it.hasNext && opened > 0) {
-        val c = it.next
+      val res = new java.lang.StringBuilder
+      while (i < s.length && opened > 0) {
+        val c = s.charAt(i)
+        i += 1
         c match {
           case '{' ⇒
-            res.append(c.toChar); opened += 1
+            res.append(c); opened += 1
           case '}' ⇒
-            opened -= 1; if (opened > 0) res.append(c.toChar)
-          case _ ⇒ res.append(c.toChar)
+            opened -= 1; if (opened > 0) res.append(c)
+          case _ ⇒ res.append(c)
         }
       }
       if (opened != 0) throw new UserBadDataError("Malformed ${expr} expression, unmatched opened {")
       res.toString
     }
 
+    // constant elements are merged so that a string without code is a single constant
+    def unexpanded() = {
+      if (os.length > 0) expandedElements += UnexpandedElement(os.toString)
+      os.setLength(0)
+    }
+
     var dollar = false
-    val os = new StringOutputStream()
 
-    while (it.hasNext) {
-      val c = it.next
+    while (i < s.length) {
+      val c = s.charAt(i)
+      i += 1
       c match {
         case '{' ⇒
           if (dollar) {
-            expandedElements += UnexpandedElement(os.clear())
-            val toExpand = nextToExpand(it)
-            expandedElements += ExpandedElement(toExpand)
+            ExpandedElement(nextToExpand()) match {
+              case ValueElement(v) ⇒ os.append(v)
+              case e ⇒
+                unexpanded()
+                expandedElements += e
+            }
           }
-          else os.write(c)
+          else os.append(c)
           dollar = false
         case '$' ⇒
-          if (dollar) os.write('$')
+          if (dollar) os.append('$')
           dollar = true
         case _ ⇒
-          if (dollar) os.write('$')
-          os.write(c)
+          if (dollar) os.append('$')
+          os.append(c)
           dollar = false
       }
     }
-    if (dollar) os.write('$')
-    expandedElements += UnexpandedElement(os.clear())
+    if (dollar) os.append('$')
+    unexpanded()
 
-    val expandedFC = expandedElements.map(ExpandedElement.fromContext)
+    expandedElements.result()
+  }
 
-    FromContext { p ⇒
-      import p._
-      expandedFC.map(_.from(context)).mkString
-    } validate { p ⇒
-      import p._
-      expandedFC.flatMap(_.validate(inputs))
+  private def fromElements(elements: Vector[ExpandedElement]): FromContext[String] =
+    elements match {
+      case Vector()                     ⇒ FromContext.value("")
+      case Vector(UnexpandedElement(s)) ⇒ FromContext.value(s)
+      case Vector(e)                    ⇒ ExpandedElement.fromContext(e)
+      case _ ⇒
+        val expandedFC = elements.map(ExpandedElement.fromContext)
+
+        FromContext { p ⇒
+          import p._
+          val res = new java.lang.StringBuilder
+          expandedFC.foreach(e ⇒ res.append(e.from(context)))
+          res.toString
+        } validate { p ⇒
+          import p._
+          expandedFC.flatMap(_.validate(inputs))
+        }
     }
-  }
 
   /**
    * An ExpandedElement distinguishes between value strings and code strings
@@ -114,28 +173,39 @@ object ExpandedString {
         Try(code.toDouble).toOption orElse
           Try(code.toLong).toOption orElse
           Try(code.toLowerCase.toBoolean).toOption match {
-            case Some(v) ⇒ ValueElement(code)
-            case None    ⇒ CodeElement(code)
+            case Some(v)                  ⇒ ValueElement(code)
+            case None if isVariable(code) ⇒ VariableElement(code)
+            case None                     ⇒ CodeElement(code)
           }
     }
 
+    def isVariable(code: String) =
+      Character.isJavaIdentifierStart(code.charAt(0)) && (1 until code.length).forall(i ⇒ Character.isJavaIdentifierPart(code.charAt(i)))
+
     def fromContext(expansionElement: ExpandedElement) =
       expansionElement match {
-        case e: UnexpandedElement ⇒ FromContext(_ ⇒ e.string)
-        case e: ValueElement      ⇒ FromContext(_ ⇒ e.v)
-        case e: CodeElement ⇒
+        case e: UnexpandedElement ⇒ FromContext.value(e.string)
+        case e: ValueElement      ⇒ FromContext.value(e.v)
+        case e: VariableElement ⇒
           FromContext { p ⇒
             import p._
-            context.variable(e.code) match {
+            context.variable(e.name) match {
               case Some(value) ⇒ value.value.toString
               case None        ⇒ e.proxy().from(context).toString
             }
           } validate { p ⇒
             import p._
-            if (inputs.exists(_.name == e.code)) Seq.empty
+            if (inputs.exists(_.name == e.name)) Seq.empty
             else e.proxy.validate(inputs).toSeq
           }
-
+        case e: CodeElement ⇒
+          FromContext { p ⇒
+            import p._
+            e.proxy().from(context).toString
+          } validate { p ⇒
+            import p._
+            e.proxy.validate(inputs).toSeq
+          }
       }
   }
 
@@ -161,5 +231,13 @@ object ExpandedString {
     @transient lazy val proxy = ScalaCompilation.dynamic[Any](code)
   }
 
+  /**
+   * An identifier, it is looked up in the context and compiled only if it is not a variable of the context
+   * @param name
+   */
+  case class VariableElement(name: String) extends ExpandedElement {
+    @transient lazy val proxy = ScalaCompilation.dynamic[Any](name)
+  }
+
 }
 
@@ -26,9 +26,11 @@ import org.openmole.core.pluginmanager._
 import org.openmole.core.tools.obj.ClassUtils._
 import org.openmole.core.workspace.NewFile
 import org.openmole.tool.cache._
+import org.openmole.tool.hash._
 import org.openmole.tool.random._
 
 import scala.util._
+import scala.util.control.NonFatal
 
 trait CompilationClosure[+T] extends ScalaCompilation.ContextClosure[T] {
   def apply(context: Context, rng: RandomProvider, newFile: NewFile): T
@@ -67,7 +69,18 @@ object ScalaCompilation {
   }
 
   /**
-   * Compile scala code using a [[org.openmole.core.console.Interpreter]]
+   * Key of a script in the [[org.openmole.core.console.CompilationCache]]: the script depends on the scala version, on
+   * the bundles of the class path of the compiler and on the plugins and libraries it is compiled with.
+   */
+  def cacheKey(code: String, plugins: Seq[File], libraries: Seq[File])(implicit newFile: NewFile, fileService: FileService) = {
+    val bundles = if (org.openmole.core.console.Activator.osgi) PluginManager.bundleHashes.map(_.toString).toSeq.sorted else Seq.empty
+    val files = (plugins ++ libraries).map(f ⇒ fileService.hashNoCache(f).toString)
+    hashString((Seq(scala.util.Properties.versionNumberString) ++ bundles ++ files ++ Seq(code)).mkString("\n")).toString
+  }
+
+  /**
+   * Compile scala code using a [[org.openmole.core.console.Interpreter]], the byte code of the compiled script is
+   * loaded from the persistent compilation cache when it is available.
    *
    * @param code
    * @param plugins
@@ -79,12 +92,45 @@ object ScalaCompilation {
    */
   def compile[RETURN](code: String, plugins: Seq[File] = Seq.empty, libraries: Seq[File] = Seq.empty)(implicit newFile: NewFile, fileService: FileService) = {
     val osgiMode = org.openmole.core.console.Activator.osgi
-    val interpreter =
+    // the interpreter is not needed when the byte code is loaded from the compilation cache
+    lazy val interpreter =
       if (osgiMode) Interpreter(priorityBundles(plugins), libraries)
       else Interpreter(jars = libraries)
 
+    def classLoader =
+      if (osgiMode) Interpreter.classLoader(priorityBundles(plugins), libraries)
+      else Interpreter.classLoader(Seq.empty, libraries)
+
+    def evaluate(script: String) =
+      fileService.persistentCompilationCache match {
+        case Some(directory) ⇒
+          val key = cacheKey(script, plugins, libraries)
+
+          def compileAndStore = {
+            val (value, byteCode) = interpreter.evalToByteCode(script)
+            byteCode.foreach(CompilationCache.store(directory, key, _))
+            value
+          }
+
+          // an entry which can't be loaded anymore, for instance because a class it links to has changed, is removed
+          // and compiled again
+          def loadCached(byteCode: CompilationCache.ByteCode) =
+            try Some(CompilationCache.evaluate(byteCode, classLoader))
+            catch {
+              case _: LinkageError | NonFatal(_) ⇒
+                CompilationCache.remove(directory, key)
+                None
+            }
+
+          CompilationCache.load(directory, key).flatMap(loadCached) match {
+            case Some(value) ⇒ value
+            case None        ⇒ compileAndStore
+          }
+        case None ⇒ interpreter.eval(script)
+      }
+
     Try[RETURN] {
-      val evaluated = interpreter.eval(addImports(code))
+      val evaluated = evaluate(addImports(code))
 
       if (evaluated == null) throw new InternalProcessingError(
         s"""The return value of the script was null:
@@ -19,10 +19,15 @@ package org.openmole.core.fileservice
 
 import java.io.File
 
+import org.openmole.tool.hash.Hash
+
 object FileCache {
-  def apply(file: File)(implicit fileService: FileService) = new FileCache(file, fileService)
+  def apply(file: File, hash: Option[Hash] = None)(implicit fileService: FileService) = new FileCache(file, hash, fileService)
 }
 
-class FileCache(val file: File, fileService: FileService) {
+/**
+ * A cached file, it is removed once the cache entry is garbage collected
+ */
+class FileCache(val file: File, val hash: Option[Hash], fileService: FileService) {
   override protected def finalize = fileService.asynchronousRemove(file)
 }
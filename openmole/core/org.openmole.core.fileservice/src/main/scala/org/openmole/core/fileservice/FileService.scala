@@ -18,12 +18,12 @@
 package org.openmole.core.fileservice
 
 import java.io.File
+import java.util.UUID
 import java.util.concurrent.TimeUnit
 
 import com.google.common.cache._
 import org.openmole.core.preference.{ ConfigurationLocation, Preference }
 import org.openmole.core.threadprovider.{ ThreadProvider, Updater }
-import org.openmole.tool.hash._
 import org.openmole.core.workspace._
 import org.openmole.tool.cache.AssociativeCache
 import org.openmole.tool.hash._
@@ -44,15 +44,28 @@ object FileService {
 
   val archiveCacheSize = ConfigurationLocation("FileService", "ArchiveCacheSize", Some(1000))
   val archiveCacheTime = ConfigurationLocation("FileService", "ArchiveCacheTime", Some(10 minutes))
-
-  def apply()(implicit preference: Preference, threadProvider: ThreadProvider) = {
-    val fs = new FileService
+  val archiveRetention = ConfigurationLocation("FileService", "ArchiveRetention", Some(30 days))
+  val incrementalArchives = ConfigurationLocation("FileService", "IncrementalArchives", Some(true))
+  val compilationCache = ConfigurationLocation("FileService", "CompilationCache", Some(true))
+  val compilationCacheRetention = ConfigurationLocation("FileService", "CompilationCacheRetention", Some(30 days))
+
+  private val snapshotDirectory = "snapshots"
+
+  /**
+   * @param archiveDirectory directory where the archives of directories are kept between sessions and updated
+   *                         incrementally, the archives are temporary if None
+   * @param compilationCacheDirectory directory where the byte code of compiled scripts is kept between sessions
+   */
+  def apply(archiveDirectory: Option[File] = None, compilationCacheDirectory: Option[File] = None)(implicit preference: Preference, threadProvider: ThreadProvider) = {
+    val fs = new FileService(archiveDirectory, compilationCacheDirectory)
     start(fs)
     fs
   }
 
   def start(fileService: FileService)(implicit preference: Preference, threadProvider: ThreadProvider): Unit = {
     fileService.fileDeleter.start(threadProvider)
+    fileService.cleanArchives(preference(FileService.archiveRetention))
+    fileService.cleanCompilationCache(preference(FileService.compilationCacheRetention))
     Updater.delay(fileService.gc, preference(FileService.GCInterval))
   }
 }
@@ -73,33 +86,106 @@ class FileServiceCache(implicit preference: Preference) {
       build[String, FileCache]()
 }
 
-class FileService(implicit preference: Preference) {
+class FileService(val archiveDirectory: Option[File] = None, val compilationCacheDirectory: Option[File] = None)(implicit preference: Preference) {
 
   private[fileservice] val deleteEmpty = ListBuffer[File]()
 
   def hashNoCache(file: File, hashType: HashType = SHA1)(implicit newFile: NewFile) = {
-    if (file.isDirectory) newFile.withTmpFile { archive ⇒
-      file.archive(archive, time = false)
-      hashFile(archive, hashType)
-    }
+    if (file.isDirectory) Hash(file.archiveDigest(messageDigest(hashType), time = false))
     else hashFile(file, hashType)
   }
 
+  /** Directory where the archives of directories are updated incrementally, if enabled */
+  def persistentArchives = archiveDirectory.filter(_ ⇒ preference(FileService.incrementalArchives))
+
+  /**
+   * Hash of a file or of the archive of a directory. Without persistent archives the hash of a directory is computed
+   * without writing its archive.
+   */
   def hash(file: File)(implicit newFile: NewFile, fileServiceCache: FileServiceCache): Hash = {
-    def hash = hashFile(if (file.isDirectory) archiveForDir(file).file else file)
+    def directoryHash =
+      if (persistentArchives.isDefined) archiveForDir(file).hash.get
+      else Option(fileServiceCache.archiveCache.getIfPresent(file.getAbsolutePath)).flatMap(_.hash).getOrElse(hashNoCache(file))
+
+    def hash = if (file.isDirectory) directoryHash else hashFile(file)
     fileServiceCache.hashCache.get(file.getCanonicalPath, hash)
   }
 
+  /**
+   * Archive a directory, the hash of the archive is computed while it is written and is recorded as the hash
+   * of the archive file.
+   */
   def archiveForDir(directory: File)(implicit newFile: NewFile, fileServiceCache: FileServiceCache): FileCache = {
-    def archive = {
-      val ret = newFile.newFile("archive", ".tar")
-      directory.archive(ret, time = false)
-      FileCache(ret)(this)
-    }
+    def archive =
+      persistentArchives match {
+        case Some(archives) ⇒ incrementalArchive(archives, directory)
+        case None ⇒
+          val ret = newFile.newFile("archive", ".tar")
+          val hash = Hash(directory.archiveAndDigest(ret, messageDigest(SHA1), time = false))
+          fileServiceCache.hashCache.put(ret.getCanonicalPath, hash)
+          FileCache(ret, Some(hash))(this)
+      }
 
     fileServiceCache.archiveCache.get(directory.getAbsolutePath, archive)
   }
 
+  /**
+   * Update the persistent archive of a directory, only the entries of the modified files are written. The returned
+   * file cache is an immutable snapshot of the updated archive, so that it is not modified by a later update while
+   * it is in use. The snapshot is removed once the file cache is garbage collected.
+   */
+  private def incrementalArchive(archives: File, directory: File)(implicit fileServiceCache: FileServiceCache) = {
+    val snapshots = new File(archives, FileService.snapshotDirectory)
+    snapshots.mkdirs()
+    val archive = new File(archives, hashString(directory.getCanonicalPath).toString + ".tar")
+    val snapshot = new File(snapshots, archive.getName + "-" + UUID.randomUUID)
+    val result = IncrementalArchive.update(directory, archive, Some(messageDigest(SHA1)), Some(snapshot))
+    IncrementalArchive.manifestFile(archive).setLastModified(System.currentTimeMillis)
+
+    val hash = Hash(result.digest.get)
+    fileServiceCache.hashCache.put(snapshot.getCanonicalPath, hash)
+    FileCache(snapshot, Some(hash))(this)
+  }
+
+  /**
+   * Remove the persistent archives which have not been used for longer than the retention time, and the snapshots
+   * which have not been removed when their file cache was garbage collected
+   */
+  def cleanArchives(retention: Time) =
+    for {
+      archives ← archiveDirectory
+    } {
+      for {
+        manifest ← Option(archives.listFiles).toSeq.flatten
+        if manifest.getName.endsWith(IncrementalArchive.ManifestSuffix)
+        if System.currentTimeMillis - manifest.lastModified > retention.millis
+      } {
+        val archive = new File(archives, manifest.getName.stripSuffix(IncrementalArchive.ManifestSuffix))
+        archive.delete()
+        manifest.delete()
+        IncrementalArchive.lockFile(archive).delete()
+      }
+
+      // the snapshots share the modification time of the archive they were linked to
+      for {
+        snapshot ← Option(new File(archives, FileService.snapshotDirectory).listFiles).toSeq.flatten
+        if System.currentTimeMillis - snapshot.lastModified > retention.millis
+      } snapshot.delete()
+    }
+
+  /** Directory where the byte code of compiled scripts is cached, if enabled */
+  def persistentCompilationCache = compilationCacheDirectory.filter(_ ⇒ preference(FileService.compilationCache))
+
+  /**
+   * Remove the cached byte code which has not been used for longer than the retention time
+   */
+  def cleanCompilationCache(retention: Time) =
+    for {
+      directory ← compilationCacheDirectory
+      f ← Option(directory.listFiles).toSeq.flatten
+      if System.currentTimeMillis - f.lastModified > retention.millis
+    } f.delete()
+
   private val fileDeleter = new FileDeleter(WeakReference(this))
   private val gc = new FileServiceGC(WeakReference(this))
   private val deleters = new WeakHashMap[File, DeleteOnFinalize]
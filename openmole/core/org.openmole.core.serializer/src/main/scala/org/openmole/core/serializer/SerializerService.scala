@@ -83,15 +83,16 @@ class SerializerService { service ⇒
 
   def deserialize[T](is: InputStream): T = buildXStream().fromXML(is).asInstanceOf[T]
 
-  def deserializeAndExtractFiles[T](file: File)(implicit newFile: NewFile): (T, Iterable[File]) = {
-    val tis = new TarInputStream(file.bufferedInputStream)
-    try deserializeAndExtractFiles(tis)
-    finally tis.close
-  }
+  // the archive is a file, its entries are extracted by random access
+  def deserializeAndExtractFiles[T](file: File)(implicit newFile: NewFile): (T, Iterable[File]) =
+    file.withTarFile { tarFile ⇒ extractAndDeserialize[T](tarFile.extract(_)) }
+
+  def deserializeAndExtractFiles[T](tis: TarInputStream)(implicit newFile: NewFile): (T, Iterable[File]) =
+    extractAndDeserialize[T](tis.extract(_))
 
-  def deserializeAndExtractFiles[T](tis: TarInputStream)(implicit newFile: NewFile): (T, Iterable[File]) = {
+  private def extractAndDeserialize[T](extract: File ⇒ Unit)(implicit newFile: NewFile): (T, Iterable[File]) = {
     newFile.withTmpDir { archiveExtractDir ⇒
-      tis.extract(archiveExtractDir)
+      extract(archiveExtractDir)
       val fileReplacement = FileSerialisation.deserialiseFileReplacements(archiveExtractDir, fileSerialisation())
       val contentFile = new File(archiveExtractDir, content)
       (deserializeReplaceFiles[T](contentFile, fileReplacement), fileReplacement.values)
@@ -99,7 +100,7 @@ class SerializerService { service ⇒
   }
 
   def serializeAndArchiveFiles(obj: Any, f: File)(implicit newFile: NewFile): Unit = {
-    val os = new TarOutputStream(f.bufferedOutputStream())
+    val os = new TarFileOutputStream(f.toPath)
     try serializeAndArchiveFiles(obj, os)
     finally os.close
   }
@@ -64,9 +64,9 @@ package object services {
       implicit val threadProvider = ThreadProvider()
       implicit val replicaCatalog = ReplicaCatalog(ws)
       implicit val authenticationStore = Services.authenticationStore(ws)
-      implicit val fileService = FileService()
+      implicit val fileService = FileService(Some(new File(ws.persistentDir, "archives")), Some(new File(ws.persistentDir, "compilation")))
       implicit val randomProvider = RandomProvider(seeder.newRNG)
-      implicit val eventDispatcher = EventDispatcher()
+      implicit val eventDispatcher = EventDispatcher(threadProvider.threadFactory)
       implicit val outputRedirection = OutputRedirection()
       implicit val networkService = NetworkService(httpProxy)
       implicit val fileServiceCache = FileServiceCache()
@@ -24,7 +24,7 @@ package org.openmole.core.workflow
  */
 package composition {
 
-  import java.io.PrintStream
+  import java.io.{ File, PrintStream }
 
   import org.openmole.core.context.{ Context, Val }
   import org.openmole.core.expansion.{ Condition, FromContext }
@@ -117,7 +117,8 @@ package composition {
     def toExecution(
       implicits:          Context                                    = Context.empty,
       seed:               OptionalArgument[Long]                     = None,
-      defaultEnvironment: OptionalArgument[LocalEnvironmentProvider] = None)(implicit moleServices: MoleServices): MoleExecution =
+      defaultEnvironment: OptionalArgument[LocalEnvironmentProvider] = None,
+      journal:            OptionalArgument[File]                     = None)(implicit moleServices: MoleServices): MoleExecution =
       MoleExecution(
         mole = toMole,
         sources = sources,
@@ -125,7 +126,8 @@ package composition {
         environments = environments,
         grouping = grouping,
         implicits = implicits,
-        defaultEnvironment = defaultEnvironment
+        defaultEnvironment = defaultEnvironment,
+        journal = journal
       )
 
     def slots: Set[TransitionSlot] = (firstSlot :: transitions.map(_.end).toList).toSet
@@ -42,15 +42,13 @@ object MoleJob {
     id:              Long,
     jobFinished:     MoleJob.JobFinished,
     subMoleCanceled: Canceled) = {
-    val (prototypes, values) = compressContext(context)
-    new MoleJob(task, prototypes.toArray, values.toArray, id, jobFinished, subMoleCanceled)
+    val slots = context match {
+      case c: IndexedContext ⇒ Some(c.slots)
+      case _                 ⇒ None
+    }
+    new MoleJob(task, context.values.toArray, id, jobFinished, subMoleCanceled, slots)
   }
 
-  def compressContext(context: Context) =
-    context.toSeq.map {
-      case (_, v) ⇒ (v.asInstanceOf[Variable[Any]].prototype, v.value)
-    }.unzip
-
   sealed trait StateChange
   case object Unchanged extends StateChange
   case class Changed(old: State, state: State, context: Context) extends StateChange
@@ -67,20 +65,23 @@ import MoleJob._
  * Atomic executable job, wrapping a [[Task]]
  *
  * @param task task to be executed
- * @param prototypes prototypes for the task
- * @param values values of prototypes
+ * @param variables variables of the context of the task, kept as they are so that the specialized variables are not boxed
  * @param jobFinished what to do when the state is changed
+ * @param slots the interning of the prototypes of the mole, the context of the job is indexed by slot if defined
  */
 class MoleJob(
   val task:            Task,
-  prototypes:          Array[Val[Any]],
-  values:              Array[Any],
+  variables:           Array[Variable[_]],
   val id:              MoleJobId,
   val jobFinished:     MoleJob.JobFinished,
-  val subMoleCanceled: Canceled) {
+  val subMoleCanceled: Canceled,
+  val slots:           Option[ContextSlots] = None) {
 
   def context: Context =
-    Context((prototypes zip values).map { case (p, v) ⇒ Variable(p, v) }: _*)
+    slots match {
+      case Some(s) ⇒ s(variables)
+      case None    ⇒ Context(variables: _*)
+    }
 
   def perform(executionContext: TaskExecutionContext): Either[Context, Throwable] =
     if (!subMoleCanceled())
@@ -21,7 +21,132 @@ import org.openmole.core.context.Context
 import org.openmole.core.workflow.job.MoleJob
 import org.openmole.tool.random.RandomProvider
 
+import scala.collection.mutable
+
 trait Grouping {
   def apply(context: Context, groups: Iterable[(MoleJobGroup, Iterable[MoleJob])])(implicit newGroup: NewGroup, randomProvider: RandomProvider): MoleJobGroup
   def complete(job: Iterable[MoleJob]) = false
+
+  /**
+   * Registry of the groups being filled for a capsule. By default all the open groups are passed to apply for each
+   * job, strategies which do not need to look at the other groups should provide an indexed registry.
+   */
+  def openGroups: OpenGroups = new OpenGroups.Listed(this)
+}
+
+/**
+ * Groups of jobs being filled for a capsule of a mole execution
+ */
+trait OpenGroups {
+  /**
+   * Add a job to its group, closed is called with the jobs of the group if the group is complete
+   */
+  def add(moleJob: MoleJob, context: Context, closed: Vector[MoleJob] ⇒ Unit)(implicit newGroup: NewGroup, randomProvider: RandomProvider): Unit
+
+  /**
+   * Remove and return the groups which are not complete
+   */
+  def flush(): Vector[Vector[MoleJob]]
+}
+
+object OpenGroups {
+
+  /**
+   * All the open groups are passed to the grouping for each job, in the order of their creation
+   */
+  class Listed(grouping: Grouping) extends OpenGroups {
+    private val groups = mutable.LinkedHashMap[MoleJobGroup, mutable.ListBuffer[MoleJob]]()
+
+    def add(moleJob: MoleJob, context: Context, closed: Vector[MoleJob] ⇒ Unit)(implicit newGroup: NewGroup, randomProvider: RandomProvider) = {
+      val category = grouping(context, groups)
+      val jobs = groups.getOrElseUpdate(category, mutable.ListBuffer())
+      jobs += moleJob
+
+      if (grouping.complete(jobs)) {
+        groups -= category
+        closed(jobs.toVector)
+      }
+    }
+
+    def flush() = {
+      val remaining = groups.values.map(_.toVector).toVector
+      groups.clear()
+      remaining
+    }
+  }
+
+  /**
+   * The group of a job depends on the job only, the groups are indexed by their key
+   *
+   * @param key the group of a job
+   * @param complete true if a group should be closed
+   */
+  class Keyed(key: (Context, NewGroup, RandomProvider) ⇒ MoleJobGroup, complete: Int ⇒ Boolean) extends OpenGroups {
+    private val groups = mutable.LinkedHashMap[MoleJobGroup, mutable.ArrayBuffer[MoleJob]]()
+
+    def add(moleJob: MoleJob, context: Context, closed: Vector[MoleJob] ⇒ Unit)(implicit newGroup: NewGroup, randomProvider: RandomProvider) = {
+      val category = key(context, newGroup, randomProvider)
+      val jobs = groups.getOrElseUpdate(category, mutable.ArrayBuffer())
+      jobs += moleJob
+
+      if (complete(jobs.size)) {
+        groups -= category
+        closed(jobs.toVector)
+      }
+    }
+
+    def flush() = {
+      val remaining = groups.values.map(_.toVector).toVector
+      groups.clear()
+      remaining
+    }
+  }
+
+  /**
+   * The jobs are grouped in their order of arrival by groups of size
+   */
+  class Sequential(size: Int) extends OpenGroups {
+    private var current = new mutable.ArrayBuffer[MoleJob](size)
+
+    def add(moleJob: MoleJob, context: Context, closed: Vector[MoleJob] ⇒ Unit)(implicit newGroup: NewGroup, randomProvider: RandomProvider) = {
+      current += moleJob
+
+      if (current.size >= size) {
+        val jobs = current.toVector
+        current = new mutable.ArrayBuffer[MoleJob](size)
+        closed(jobs)
+      }
+    }
+
+    def flush() = {
+      val remaining = if (current.isEmpty) Vector.empty else Vector(current.toVector)
+      current = new mutable.ArrayBuffer[MoleJob](size)
+      remaining
+    }
+  }
+
+  /**
+   * The jobs are distributed in turn among a fixed number of groups, so that the job always goes to one of the
+   * smallest groups
+   */
+  class RoundRobin(numberOfGroups: Int) extends OpenGroups {
+    private val groups = mutable.ArrayBuffer[mutable.ArrayBuffer[MoleJob]]()
+    private var next = 0
+
+    def add(moleJob: MoleJob, context: Context, closed: Vector[MoleJob] ⇒ Unit)(implicit newGroup: NewGroup, randomProvider: RandomProvider) = {
+      if (groups.size < numberOfGroups) groups += mutable.ArrayBuffer(moleJob)
+      else {
+        groups(next) += moleJob
+        next = (next + 1) % numberOfGroups
+      }
+    }
+
+    def flush() = {
+      val remaining = groups.map(_.toVector).toVector
+      groups.clear()
+      next = 0
+      remaining
+    }
+  }
+
 }
@@ -17,8 +17,10 @@
 
 package org.openmole.core.workflow.mole
 
+import java.io.File
 import java.util.UUID
 import java.util.concurrent.{ Executors, Semaphore }
+import java.util.concurrent.atomic.AtomicLongArray
 import java.util.logging.Level
 
 import org.openmole.core.context.{ Context, Variable }
@@ -31,17 +33,19 @@ import org.openmole.core.workflow.job.State._
 import org.openmole.core.workflow.job._
 import org.openmole.core.workflow.mole
 import org.openmole.core.workflow.mole.MoleExecution.{ Cleaned, MoleExecutionFailed, SubMoleExecutionState }
-import org.openmole.core.workflow.task.TaskExecutionContext
+import org.openmole.core.workflow.task.{ ExplorationTask, TaskExecutionContext }
 import org.openmole.core.workflow.tools.{ OptionalArgument ⇒ _, _ }
-import org.openmole.core.workflow.transition.{ DataChannel, IAggregationTransition, ITransition }
+import org.openmole.core.workflow.transition.{ AggregationStore, DataChannel, IAggregationTransition, ITransition }
 import org.openmole.core.workflow.validation._
 import org.openmole.tool.cache.KeyValueCache
-import org.openmole.tool.collection.{ PriorityQueue, StaticArrayBuffer }
+import org.openmole.tool.collection.PriorityQueue
 import org.openmole.tool.lock._
 import org.openmole.tool.thread._
 import org.openmole.tool.logger.{ JavaLogger, LoggerService }
 
-import scala.collection.mutable.{ Buffer, ListBuffer }
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+import scala.collection.mutable.Buffer
 
 object MoleExecution extends JavaLogger {
 
@@ -89,7 +93,8 @@ object MoleExecution extends JavaLogger {
     cleanOnFinish:               Boolean                                    = true,
     startStopDefaultEnvironment: Boolean                                    = true,
     taskCache:                   KeyValueCache                              = KeyValueCache(),
-    lockRepository:              LockRepository[LockKey]                    = LockRepository()
+    lockRepository:              LockRepository[LockKey]                    = LockRepository(),
+    journal:                     OptionalArgument[File]                     = None
   )(implicit moleServices: MoleServices): MoleExecution = {
 
     def defaultDefaultEnvironment = LocalEnvironment()(varName = sourcecode.Name("local"))
@@ -107,7 +112,8 @@ object MoleExecution extends JavaLogger {
       startStopDefaultEnvironment,
       id = UUID.randomUUID().toString,
       keyValueCache = taskCache,
-      lockRepository = lockRepository
+      lockRepository = lockRepository,
+      journal = journal.option.map(d ⇒ MoleJournal(d)(moleServices.serializerService))
     )
   }
 
@@ -115,13 +121,15 @@ object MoleExecution extends JavaLogger {
 
   case class JobStatuses(ready: Long, running: Long, completed: Long)
 
-  object AggregationTransitionRegistryRecord {
-    def apply(size: Int): AggregationTransitionRegistryRecord =
-      new AggregationTransitionRegistryRecord(new StaticArrayBuffer(size), new StaticArrayBuffer(size))
-  }
+  /**
+   * Number of jobs per capsule, indexed by the ids of the capsules in the topology of the mole
+   *
+   * @param active the jobs registered and not finished yet, ready or running
+   * @param completed the jobs which have completed successfully
+   */
+  case class JobCounts(active: Array[Long], completed: Array[Long])
 
-  case class AggregationTransitionRegistryRecord(ids: StaticArrayBuffer[Long], values: StaticArrayBuffer[Array[Any]])
-  type AggregationTransitionRegistry = RegistryWithTicket[IAggregationTransition, AggregationTransitionRegistryRecord]
+  type AggregationTransitionRegistry = RegistryWithTicket[IAggregationTransition, AggregationStore]
   type MasterCapsuleRegistry = RegistryWithTicket[MasterCapsule, Context]
   type TransitionRegistry = RegistryWithTicket[ITransition, Iterable[Variable[_]]]
 
@@ -138,15 +146,17 @@ object MoleExecution extends JavaLogger {
   }
 
   def removeJob(subMoleExecutionState: SubMoleExecutionState, job: MoleJobId) = {
+    val moleExecution = subMoleExecutionState.moleExecution
     subMoleExecutionState.jobs.remove(job)
-    subMoleExecutionState.moleExecution.jobs.remove(job)
+    Option(moleExecution.jobs.remove(job)).foreach { capsule ⇒ moleExecution.activeJobs(moleExecution.topology.id(capsule)) -= 1 }
     updateNbJobs(subMoleExecutionState, -1)
   }
 
   def addJob(subMoleExecution: SubMoleExecutionState, job: MoleJobId, capsule: MoleCapsule) =
     if (!subMoleExecution.canceled) {
+      val moleExecution = subMoleExecution.moleExecution
       subMoleExecution.jobs.add(job)
-      subMoleExecution.moleExecution.jobs.put(job, capsule)
+      if (moleExecution.jobs.put(job, capsule) == null) moleExecution.activeJobs(moleExecution.topology.id(capsule)) += 1
     }
 
   def updateNbJobs(subMoleExecutionState: SubMoleExecutionState, v: Int): Unit = {
@@ -163,7 +173,7 @@ object MoleExecution extends JavaLogger {
       updateNbJobs(subMoleExecutionState, 1)
 
       val sourced =
-        subMoleExecutionState.moleExecution.sources(capsule).foldLeft(Context.empty) {
+        subMoleExecutionState.moleExecution.topology.sources(capsule).foldLeft(Context.empty) {
           case (a, s) ⇒
             val ctx = try s.perform(subMoleExecutionState.moleExecution.implicits + context, subMoleExecutionState.moleExecution.executionContext)
             catch {
@@ -187,7 +197,7 @@ object MoleExecution extends JavaLogger {
           subMoleExecutionState.masterCapsuleExecutor.submit {
             try {
               val savedContext = subMoleExecutionState.masterCapsuleRegistry.remove(c, ticket.parentOrException).getOrElse(Context.empty)
-              val moleJob: MoleJob = MoleJob(capsule.task, subMoleExecutionState.moleExecution.implicits + sourced + context + savedContext, jobId, (_, _) ⇒ Unit, () ⇒ subMoleExecutionState.canceled)
+              val moleJob: MoleJob = MoleJob(capsule.task, subMoleExecutionState.moleExecution.topology.contextSlots(subMoleExecutionState.moleExecution.implicits) + sourced + context + savedContext, jobId, (_, _) ⇒ Unit, () ⇒ subMoleExecutionState.canceled)
               eventDispatcher.trigger(subMoleExecutionState.moleExecution, MoleExecution.JobCreated(moleJob, capsule))
               MoleExecutionMessage.send(subMoleExecutionState.moleExecution)(MoleExecutionMessage.RegisterJob(subMoleExecutionState, moleJob, capsule))
 
@@ -220,16 +230,40 @@ object MoleExecution extends JavaLogger {
             }
           }
         case _ ⇒
-          def onJobFinished(job: MoleJobId, result: Either[Context, Throwable]) =
-            MoleExecutionMessage.send(subMoleExecutionState.moleExecution)(MoleExecutionMessage.JobFinished(subMoleExecutionState.id)(job, result, capsule, ticket))
+          val moleExecution = subMoleExecutionState.moleExecution
+          val newContext = moleExecution.topology.contextSlots(moleExecution.implicits) + sourced + context
+          val jobId = nextJobId(moleExecution)
+
+          def createJob(journalKey: Option[String], replayed: Option[Context]) = {
+            def onJobFinished(job: MoleJobId, result: Either[Context, Throwable]) =
+              MoleExecutionMessage.send(moleExecution)(MoleExecutionMessage.JobFinished(subMoleExecutionState.id)(job, result, capsule, ticket, journalKey))
 
-          val newContext = subMoleExecutionState.moleExecution.implicits + sourced + context
-          val moleJob: MoleJob = MoleJob(capsule.task, newContext, nextJobId(subMoleExecutionState.moleExecution), onJobFinished, () ⇒ subMoleExecutionState.canceled)
+            val moleJob: MoleJob = MoleJob(capsule.task, newContext, jobId, onJobFinished, () ⇒ subMoleExecutionState.canceled)
+            eventDispatcher.trigger(moleExecution, MoleExecution.JobCreated(moleJob, capsule))
 
-          MoleExecution.addJob(subMoleExecutionState, moleJob.id, capsule)
-          eventDispatcher.trigger(subMoleExecutionState.moleExecution, MoleExecution.JobCreated(moleJob, capsule))
+            replayed match {
+              case Some(result) ⇒ MoleExecutionMessage.send(moleExecution)(MoleExecutionMessage.JobFinished(subMoleExecutionState.id)(moleJob.id, Left(result), capsule, ticket, replayed = true))
+              case None         ⇒ group(moleExecution, moleJob, newContext, capsule)
+            }
+          }
 
-          group(subMoleExecutionState.moleExecution, moleJob, newContext, capsule)
+          MoleExecution.addJob(subMoleExecutionState, jobId, capsule)
+
+          moleExecution.journal match {
+            case None ⇒ createJob(None, None)
+            case Some(journal) ⇒
+              // the key hashes the files of the context and the replay reads the journal, both are done off the dispatcher
+              threadProvider.submit(ThreadProvider.maxPriority) { () ⇒
+                try {
+                  val key = journal.key(moleExecution.topology.id(capsule), capsule, context)
+                  val replayed = journal.replay(key)
+                  MoleExecutionMessage.send(moleExecution)(MoleExecutionMessage.PerformTransition(subMoleExecutionState.id) { _ ⇒ createJob(Some(key), replayed) })
+                }
+                catch {
+                  case t: Throwable ⇒ MoleExecutionMessage.send(moleExecution)(MoleExecutionMessage.MoleExecutionError(t))
+                }
+              }
+          }
       }
 
     }
@@ -239,13 +273,26 @@ object MoleExecution extends JavaLogger {
     if (!MoleExecution.moleJobIsFinished(moleExecution, msg.job)) {
       val state = moleExecution.subMoleExecutions(msg.subMoleExecution)
       if (!state.canceled) {
-        try MoleExecution.processFinalState(state, msg.job, msg.result, msg.capsule, msg.ticket)
+        try MoleExecution.processFinalState(state, msg.job, msg.result, msg.capsule, msg.ticket, msg.journalKey, msg.replayed)
         finally removeJob(state, msg.job)
+        feed(state)
       }
       MoleExecution.checkIfSubMoleIsFinished(state)
     }
 
-  def performHooksAndTransitions(subMoleExecutionState: SubMoleExecutionState, job: MoleJobId, context: Context, capsule: MoleCapsule, ticket: Ticket) = {
+  /**
+   * Submit the next samples of the streamed explorations of a sub mole and of its parents, the jobs of a sub mole
+   * are counted in the ones of its parents
+   */
+  @tailrec def feed(state: SubMoleExecutionState): Unit = {
+    if (!state.canceled) state.feeder.foreach(_(state))
+    state.parent match {
+      case Some(p) ⇒ feed(p)
+      case None    ⇒
+    }
+  }
+
+  def performHooksAndTransitions(subMoleExecutionState: SubMoleExecutionState, job: MoleJobId, context: Context, capsule: MoleCapsule, ticket: Ticket, executeHooks: Boolean = true) = {
     val mole = subMoleExecutionState.moleExecution.mole
 
     def ctxForHooks = (subMoleExecutionState.moleExecution.implicits + context) - Variable.openMOLESeed
@@ -279,12 +326,12 @@ object MoleExecution extends JavaLogger {
       }
 
     try {
-      val hooksVariables = subMoleExecutionState.moleExecution.hooks(capsule).flatMap(executeHook).unzip._2
+      val hooksVariables = if (executeHooks) subMoleExecutionState.moleExecution.topology.hooks(capsule).flatMap(executeHook).unzip._2 else Iterable.empty
       val newContext = context ++ hooksVariables
       mole.outputDataChannels(capsule).toSeq.foreach { d ⇒ DataChannel.provides(d, subMoleExecutionState.moleExecution.implicits + newContext, ticket, subMoleExecutionState.moleExecution) }
 
       for {
-        transition ← mole.outputTransitions(capsule).toList.sortBy(t ⇒ mole.slots(t.end.capsule).size).reverse
+        transition ← subMoleExecutionState.moleExecution.topology.outputTransitions(capsule)
       } transition.perform(subMoleExecutionState.moleExecution.implicits + context, ticket, subMoleExecutionState.moleExecution, subMoleExecutionState.id, subMoleExecutionState.moleExecution.executionContext)
 
     }
@@ -313,7 +360,11 @@ object MoleExecution extends JavaLogger {
   def newChildSubMoleExecution(subMoleExecution: SubMoleExecutionState): SubMoleExecutionState =
     newSubMoleExecution(Some(subMoleExecution), subMoleExecution.moleExecution)
 
-  def processFinalState(subMoleExecutionState: SubMoleExecutionState, job: MoleJobId, result: Either[Context, Throwable], capsule: MoleCapsule, ticket: Ticket) = {
+  /**
+   * @param journalKey key of the job in the journal of the mole execution, the result of the job is recorded under it
+   * @param replayed true if the result comes from the journal, the hooks have been executed by a previous execution
+   */
+  def processFinalState(subMoleExecutionState: SubMoleExecutionState, job: MoleJobId, result: Either[Context, Throwable], capsule: MoleCapsule, ticket: Ticket, journalKey: Option[String] = None, replayed: Boolean = false) = {
     result match {
       case Right(e) ⇒
         val error = MoleExecution.JobFailed(job, capsule, e)
@@ -321,12 +372,29 @@ object MoleExecution extends JavaLogger {
         Log.logger.log(Log.FINE, s"Error in user job execution for capsule $capsule, job state is FAILED.", e)
         subMoleExecutionState.moleExecution.executionContext.services.eventDispatcher.trigger(subMoleExecutionState.moleExecution, error)
       case Left(context) ⇒
-        subMoleExecutionState.moleExecution.completed(capsule) = subMoleExecutionState.moleExecution.completed(capsule) + 1
+        subMoleExecutionState.moleExecution.completedJobs(subMoleExecutionState.moleExecution.topology.id(capsule)) += 1
         subMoleExecutionState.moleExecution.executionContext.services.eventDispatcher.trigger(subMoleExecutionState.moleExecution, MoleExecution.JobFinished(job, context, capsule))
-        performHooksAndTransitions(subMoleExecutionState, job, context, capsule, ticket)
+        performHooksAndTransitions(subMoleExecutionState, job, context, capsule, ticket, executeHooks = !replayed)
+        record(subMoleExecutionState.moleExecution, journalKey, context)
     }
   }
 
+  /**
+   * Record the result of a job in the journal, the record is written on the thread provider, off the dispatcher. The
+   * results of the streamed explorations are not recorded, their samples are pulled from the sampling.
+   */
+  def record(moleExecution: MoleExecution, journalKey: Option[String], context: Context) =
+    for {
+      journal ← moleExecution.journal
+      key ← journalKey
+      if !context.contains(ExplorationTask.samples)
+    } {
+      import moleExecution.executionContext.services._
+      journal.recordAsync(key, context, threadProvider.pool) { t ⇒
+        Log.logger.log(Log.WARNING, s"Error while recording the result of a job in the journal ${journal.directory}", t)
+      }
+    }
+
   /* -------------- Mole Execution ----------------- */
 
   def start(moleExecution: MoleExecution, context: Option[Context]) =
@@ -342,9 +410,11 @@ object MoleExecution extends JavaLogger {
       import moleExecution.executionContext.services._
 
       newFile.baseDir.mkdirs()
+      moleExecution.topology.contextSlots
       moleExecution._started = true
       moleExecution._startTime = Some(System.currentTimeMillis)
       eventDispatcher.trigger(moleExecution, new MoleExecution.Started)
+      listenRunningJobs(moleExecution)
       startEnvironments()
       submit(moleExecution.rootSubMoleExecution, moleExecution.mole.root, context.getOrElse(Context.empty), nextTicket(moleExecution, moleExecution.rootTicket))
       checkAllWaiting(moleExecution)
@@ -375,7 +445,10 @@ object MoleExecution extends JavaLogger {
     import moleExecution.executionContext.services._
     LoggerService.log(Level.FINE, s"clean mole execution $moleExecution")
 
-    try if (moleExecution.cleanOnFinish) moleExecution.executionContext.services.newFile.baseDir.recursiveDelete
+    try {
+      moleExecution.journal.foreach(_.flush())
+      if (moleExecution.cleanOnFinish) moleExecution.executionContext.services.newFile.baseDir.recursiveDelete
+    }
     finally {
       moleExecution._cleaned = true
       moleExecution.cleanedSemaphore.release()
@@ -407,26 +480,19 @@ object MoleExecution extends JavaLogger {
     id
   }
 
-  def group(moleExecution: MoleExecution, moleJob: MoleJob, context: Context, capsule: MoleCapsule) = {
+  def group(moleExecution: MoleExecution, moleJob: MoleJob, context: Context, capsule: MoleCapsule) =
     moleExecution.grouping.get(capsule) match {
       case Some(strategy) ⇒
-        val groups = moleExecution.waitingJobs.getOrElseUpdate(capsule, collection.mutable.Map())
-        val category = strategy.apply(context, groups.toVector)(moleExecution.newGroup, moleExecution.executionContext.services.defaultRandom)
-        val jobs = groups.getOrElseUpdate(category, ListBuffer())
-        jobs.append(moleJob)
-        moleExecution.nbWaiting += 1
-
-        if (strategy.complete(jobs)) {
-          groups -= category
+        def closed(jobs: Vector[MoleJob]) = {
           moleExecution.nbWaiting -= jobs.size
-          Some(Job(moleExecution, jobs.toVector) → capsule)
+          submit(moleExecution, Job(moleExecution, jobs), capsule)
         }
-        else None
-      case None ⇒
-        val job = Job(moleExecution, Vector(moleJob))
-        Some(job → capsule)
+
+        val groups = moleExecution.waitingJobs.getOrElseUpdate(capsule, strategy.openGroups)
+        moleExecution.nbWaiting += 1
+        groups.add(moleJob, context, closed)(moleExecution.newGroup, moleExecution.executionContext.services.defaultRandom)
+      case None ⇒ submit(moleExecution, Job(moleExecution, Vector(moleJob)), capsule)
     }
-  }.foreach { case (j, c) ⇒ submit(moleExecution, j, c) }
 
   def submit(moleExecution: MoleExecution, job: Job, capsule: MoleCapsule) = {
     val env = moleExecution.environments.getOrElse(capsule, moleExecution.defaultEnvironment)
@@ -459,7 +525,7 @@ object MoleExecution extends JavaLogger {
   def submitAll(moleExecution: MoleExecution) = {
     for {
       (capsule, groups) ← moleExecution.waitingJobs
-      (_, jobs) ← groups.toList
+      jobs ← groups.flush()
     } submit(moleExecution, Job(moleExecution, jobs), capsule)
     moleExecution.nbWaiting = 0
     moleExecution.waitingJobs.clear
@@ -470,8 +536,20 @@ object MoleExecution extends JavaLogger {
     subMoleExecutionState.moleExecution.subMoleExecutions.remove(subMoleExecutionState.id)
   }
 
+  /**
+   * Count the messages of a sub mole execution which are queued or about to be queued, the messages are counted
+   * before being enqueued so that a sub mole is never considered finished while a message for it is being sent.
+   */
+  def updateNbMessages(moleExecution: MoleExecution, subMoleExecution: SubMoleExecution, v: Long) =
+    moleExecution.nbMessages.merge(subMoleExecution, v, (n: java.lang.Long, d: java.lang.Long) ⇒ {
+      val total = n.longValue + d.longValue
+      if (total == 0) null else java.lang.Long.valueOf(total)
+    })
+
+  def hasMessages(state: SubMoleExecutionState) = state.moleExecution.nbMessages.containsKey(state.id)
+
   def checkIfSubMoleIsFinished(state: SubMoleExecutionState) = {
-    def hasMessages = state.moleExecution.messageQueue.all.exists(MoleExecutionMessage.msgForSubMole(_, state))
+    def hasMessages = MoleExecution.hasMessages(state)
 
     if (state.nbJobs == 0 && !hasMessages) {
       state.onFinish.foreach(_(state))
@@ -479,7 +557,7 @@ object MoleExecution extends JavaLogger {
     }
   }
 
-  def moleJobIsFinished(moleExecution: MoleExecution, id: MoleJobId) = !moleExecution.jobs.contains(id)
+  def moleJobIsFinished(moleExecution: MoleExecution, id: MoleJobId) = !moleExecution.jobs.containsKey(id)
 
   def checkAllWaiting(moleExecution: MoleExecution) =
     if (moleExecution.rootSubMoleExecution.nbJobs <= moleExecution.nbWaiting) MoleExecution.submitAll(moleExecution)
@@ -494,54 +572,59 @@ object MoleExecution extends JavaLogger {
     if (moleExecution.messageQueue.isEmpty && moleExecution.rootSubMoleExecution.nbJobs == 0) MoleExecution.finish(moleExecution)
   }
 
-  def allJobIds(moleExecution: MoleExecution) = moleExecution.jobs.toVector
-
-  def capsuleStatuses(moleExecution: MoleExecution, jobs: Seq[(MoleJobId, MoleCapsule)], completed: Map[MoleCapsule, Long]): CapsuleStatuses = {
-
-    val runningSet: java.util.HashSet[Long] = {
-      def submissionEnvironments = moleExecution.environments.values.toSeq.collect { case e: SubmissionEnvironment ⇒ e }
-      def localEnvironments = moleExecution.environments.values.toSeq.collect { case e: LocalEnvironment ⇒ e }
+  def allJobIds(moleExecution: MoleExecution) = moleExecution.jobs.asScala.toVector
 
-      val set = new java.util.HashSet[Long](jobs.size + 1, 1.0f)
+  /**
+   * Publish the job counters of a mole execution, they are modified by the dispatcher and read by the monitoring
+   * threads through this copy
+   */
+  def publishJobCounts(moleExecution: MoleExecution) =
+    moleExecution._jobCounts = JobCounts(moleExecution.activeJobs.clone(), moleExecution.completedJobs.clone())
 
-      for {
-        env ← submissionEnvironments
-        ej ← env.runningJobs
-        id ← ej.moleJobIds
-      } set.add(id)
-
-      for {
-        env ← localEnvironments
-        ej ← env.runningJobs
-      } set.add(ej.id)
-
-      set
-    }
-
-    def isRunning(moleJob: MoleJobId): Boolean = runningSet.contains(moleJob)
+  /**
+   * Count the running jobs of each capsule from the state changes of the execution jobs in the environments of the
+   * mole execution, the capsules of an execution job are resolved when it starts running since its jobs may have
+   * been removed from the mole execution by the time it stops
+   */
+  def listenRunningJobs(moleExecution: MoleExecution) = {
+    import moleExecution.executionContext.services._
 
-    val ready = collection.mutable.Map[MoleCapsule, Long]()
-    val running = collection.mutable.Map[MoleCapsule, Long]()
+    for (env ← moleExecution.allEnvironments)
+      eventDispatcher.listen(env) { case (_, e: Environment.JobStateChanged) ⇒ updateRunningJobs(moleExecution, e) }
+  }
 
-    def increment(map: collection.mutable.Map[MoleCapsule, Long], key: MoleCapsule) = {
-      val value = map.getOrElse(key, 0L)
-      map.update(key, value + 1)
+  def updateRunningJobs(moleExecution: MoleExecution, e: Environment.JobStateChanged) =
+    if (e.newState == ExecutionState.RUNNING && e.oldState != ExecutionState.RUNNING) {
+      val capsules = e.job.moleJobIds.flatMap(id ⇒ Option(moleExecution.jobs.get(id))).map(c ⇒ moleExecution.topology.id(c)).toArray
+      if (!capsules.isEmpty && moleExecution.runningExecutionJobs.putIfAbsent(e.job, capsules) == null)
+        capsules.foreach(i ⇒ moleExecution.runningJobs.incrementAndGet(i))
     }
-
-    for {
-      (moleJob, capsule) ← jobs
-    } {
-      if (isRunning(moleJob)) increment(running, capsule)
-      else increment(ready, capsule)
+    else if (e.oldState == ExecutionState.RUNNING && e.newState != ExecutionState.RUNNING) {
+      val capsules = moleExecution.runningExecutionJobs.remove(e.job)
+      if (capsules != null) capsules.foreach(i ⇒ moleExecution.runningJobs.decrementAndGet(i))
     }
 
-    moleExecution.mole.capsules.map { c ⇒
-      c ->
-        MoleExecution.JobStatuses(
-          ready = ready.getOrElse(c, 0L),
-          running = running.getOrElse(c, 0L),
-          completed = completed.getOrElse(c, 0L)
-        )
+  /**
+   * Status of the jobs of each capsule. The number of active and completed jobs is read from the published
+   * counters and the number of running jobs from the counters updated by the environment events, so the cost does
+   * not depend on the number of jobs of the execution and the lock of the mole execution is not acquired.
+   */
+  def capsuleStatuses(moleExecution: MoleExecution): CapsuleStatuses = {
+    val counts = moleExecution._jobCounts
+    val topology = moleExecution.topology
+
+    def count(counters: Array[Long], i: Int) = if (i < counters.length) counters(i) else 0L
+
+    topology.capsules.zipWithIndex.map {
+      case (c, i) ⇒
+        val running = moleExecution.runningJobs.get(i)
+
+        c ->
+          MoleExecution.JobStatuses(
+            ready = math.max(count(counts.active, i) - running, 0L),
+            running = running,
+            completed = count(counts.completed, i)
+          )
     }.toMap
   }
 
@@ -559,6 +642,7 @@ object MoleExecution extends JavaLogger {
     @volatile var canceled = false
 
     val onFinish = collection.mutable.ListBuffer[(SubMoleExecutionState ⇒ Any)]()
+    var feeder: Option[SubMoleExecutionState ⇒ Unit] = None
     val masterCapsuleRegistry = new MasterCapsuleRegistry
     val aggregationTransitionRegistry = new AggregationTransitionRegistry
     val transitionRegistry = new TransitionRegistry
@@ -591,7 +675,7 @@ sealed trait MoleExecutionMessage
 
 object MoleExecutionMessage {
   case class PerformTransition(subMoleExecution: SubMoleExecution)(val operation: SubMoleExecutionState ⇒ Unit) extends MoleExecutionMessage
-  case class JobFinished(subMoleExecution: SubMoleExecution)(val job: MoleJobId, val result: Either[Context, Throwable], val capsule: MoleCapsule, val ticket: Ticket) extends MoleExecutionMessage //, val state: State, val capsule: MoleCapsule, val ticket: Ticket) extends MoleExecutionMessage
+  case class JobFinished(subMoleExecution: SubMoleExecution)(val job: MoleJobId, val result: Either[Context, Throwable], val capsule: MoleCapsule, val ticket: Ticket, val journalKey: Option[String] = None, val replayed: Boolean = false) extends MoleExecutionMessage //, val state: State, val capsule: MoleCapsule, val ticket: Ticket) extends MoleExecutionMessage
   case class WithMoleExecutionSate(operation: MoleExecution ⇒ Unit) extends MoleExecutionMessage
   case class StartMoleExecution(context: Option[Context]) extends MoleExecutionMessage
   case class CancelMoleExecution() extends MoleExecutionMessage
@@ -605,6 +689,12 @@ object MoleExecutionMessage {
     case _                      ⇒ false
   }
 
+  private def countMessage(moleExecution: MoleExecution, msg: MoleExecutionMessage, v: Long) = msg match {
+    case msg: PerformTransition ⇒ MoleExecution.updateNbMessages(moleExecution, msg.subMoleExecution, v)
+    case msg: JobFinished       ⇒ MoleExecution.updateNbMessages(moleExecution, msg.subMoleExecution, v)
+    case _                      ⇒
+  }
+
   def messagePriority(moleExecutionMessage: MoleExecutionMessage) =
     moleExecutionMessage match {
       case _: RegisterJob         ⇒ 200
@@ -613,9 +703,15 @@ object MoleExecutionMessage {
       case _                      ⇒ 1
     }
 
-  def send(moleExecution: MoleExecution)(moleExecutionMessage: MoleExecutionMessage, priority: Option[Int] = None) =
+  def send(moleExecution: MoleExecution)(moleExecutionMessage: MoleExecutionMessage, priority: Option[Int] = None) = {
+    countMessage(moleExecution, moleExecutionMessage, 1)
     moleExecution.messageQueue.enqueue(moleExecutionMessage, priority getOrElse messagePriority(moleExecutionMessage))
+  }
 
+  /**
+   * Process a message under the lock of the mole execution, the state of the mole execution is checked by the
+   * dispatcher once per batch of messages (see [[dispatcher]])
+   */
   def dispatch(moleExecution: MoleExecution, msg: MoleExecutionMessage) = moleExecution.synchronized {
     import moleExecution.executionContext.services._
     LoggerService.log(Level.FINE, s"processing message $msg in mole execution $moleExecution")
@@ -640,15 +736,44 @@ object MoleExecutionMessage {
     catch {
       case t: Throwable ⇒ MoleExecution.cancel(moleExecution, Some(MoleExecution.MoleExecutionError(t)))
     }
+  }
 
+  /**
+   * Check the state of the mole execution after a batch of messages: submit the waiting jobs, finish the execution
+   * and publish the job counters
+   */
+  private def checkState(moleExecution: MoleExecution) = moleExecution.synchronized {
     MoleExecution.checkAllWaiting(moleExecution)
     MoleExecution.checkMoleExecutionIsFinished(moleExecution)
+    MoleExecution.publishJobCounts(moleExecution)
   }
 
+  /**
+   * Maximum number of messages dispatched before the state of the mole execution is checked
+   */
+  val dispatchBatchSize = 1000
+
+  /**
+   * Dispatch the messages. Each message is processed under its own acquisition of the lock, so the other users of the
+   * lock wait for one message at most, and the messages available in the queue are dispatched in batches: the waiting
+   * jobs, the end of the execution and the job counters are checked once per batch instead of once per message.
+   * Messages are dequeued one at a time so that a message of higher priority sent during a batch is dispatched first.
+   */
   def dispatcher(moleExecution: MoleExecution) =
     while (!(moleExecution._cleaned)) {
-      val msg = moleExecution.messageQueue.dequeue()
-      dispatch(moleExecution, msg)
+      @tailrec def dispatchBatch(msg: MoleExecutionMessage, dispatched: Int): Unit = {
+        countMessage(moleExecution, msg, -1)
+        dispatch(moleExecution, msg)
+
+        if (dispatched < dispatchBatchSize && !moleExecution._cleaned)
+          moleExecution.messageQueue.tryDequeue() match {
+            case Some(next) ⇒ dispatchBatch(next, dispatched + 1)
+            case None       ⇒
+          }
+      }
+
+      dispatchBatch(moleExecution.messageQueue.dequeue(), 1)
+      checkState(moleExecution)
     }
 
 }
@@ -666,10 +791,14 @@ class MoleExecution(
   val startStopDefaultEnvironment: Boolean,
   val id:                          String,
   val keyValueCache:               KeyValueCache,
-  val lockRepository:              LockRepository[LockKey]
+  val lockRepository:              LockRepository[LockKey],
+  val journal:                     Option[MoleJournal]
 ) {
 
+  lazy val topology = MoleTopology(mole, sources, hooks)
+
   val messageQueue = PriorityQueue[MoleExecutionMessage](fifo = true)
+  private[mole] val nbMessages = new java.util.concurrent.ConcurrentHashMap[SubMoleExecution, java.lang.Long]()
 
   private[mole] var _started = false
   private[mole] var _canceled = false
@@ -700,14 +829,17 @@ class MoleExecution(
 
   private[mole] val newGroup = NewGroup()
 
-  private[mole] val waitingJobs = collection.mutable.Map[MoleCapsule, collection.mutable.Map[MoleJobGroup, ListBuffer[MoleJob]]]()
+  private[mole] val waitingJobs = collection.mutable.Map[MoleCapsule, OpenGroups]()
   private[mole] var nbWaiting = 0
 
-  private[mole] val completed = {
-    val map = collection.mutable.Map[MoleCapsule, Long]()
-    map ++= mole.capsules.map(_ -> 0L)
-    map
-  }
+  // modified by the dispatcher only, published through _jobCounts
+  private[mole] lazy val activeJobs = new Array[Long](topology.capsules.size)
+  private[mole] lazy val completedJobs = new Array[Long](topology.capsules.size)
+  @volatile private[mole] var _jobCounts = MoleExecution.JobCounts(Array.empty, Array.empty)
+
+  // modified by the listeners of the environments, see MoleExecution.listenRunningJobs
+  private[mole] lazy val runningJobs = new AtomicLongArray(topology.capsules.size)
+  private[mole] val runningExecutionJobs = java.util.Collections.synchronizedMap(new java.util.IdentityHashMap[ExecutionJob, Array[Int]]())
 
   lazy val environmentInstances = environmentProviders.toVector.map { case (k, v) ⇒ v }.distinct.map { v ⇒ v → v(executionContext.services) }.toMap
   lazy val environments = environmentProviders.toVector.map { case (k, v) ⇒ k → environmentInstances(v) }.toMap
@@ -720,7 +852,8 @@ class MoleExecution(
 
   private[mole] var currentSubMoleExecutionId = 0L
 
-  private[mole] val jobs = collection.mutable.TreeMap[MoleJobId, MoleCapsule]()
+  // read without the lock of the mole execution to monitor the running jobs
+  private[mole] val jobs = new java.util.concurrent.ConcurrentHashMap[MoleJobId, MoleCapsule]()
 
   private[workflow] val dataChannelRegistry = new RegistryWithTicket[DataChannel, Buffer[Variable[_]]]
   private[mole] var _exception = Option.empty[MoleExecutionFailed]
@@ -737,6 +870,9 @@ class MoleExecution(
 
   def run: Unit = run(None)
 
+  /**
+   * Validate the mole, all the code of the mole is compiled at this stage, in parallel
+   */
   def validate = {
     import executionContext.services._
     val validationErrors = Validation(mole, implicits, sources, hooks)
@@ -757,7 +893,7 @@ class MoleExecution(
   def start(doValidation: Boolean) = {
     import executionContext.services._
     if (doValidation) validate
-    val t = threadProvider.newThread { () ⇒ run(None, validate = doValidation) }
+    val t = threadProvider.newThread { () ⇒ run(None, validate = false) }
     t.start()
     this
   }
@@ -770,9 +906,6 @@ class MoleExecution(
 
   def cancel = MoleExecutionMessage.send(this)(MoleExecutionMessage.CancelMoleExecution())
 
-  def capsuleStatuses(implicit s: MoleExecution.SynchronisationContext) = {
-    val (jobs, cmp) = sync { (MoleExecution.allJobIds(this).toVector, completed.toMap) }
-    MoleExecution.capsuleStatuses(this, jobs, cmp)
-  }
+  def capsuleStatuses(implicit s: MoleExecution.SynchronisationContext) = MoleExecution.capsuleStatuses(this)
 
 }
@@ -20,6 +20,7 @@ package org.openmole.core.workflow.mole
 import org.openmole.core.event.EventDispatcher
 import org.openmole.core.fileservice.{ FileService, FileServiceCache }
 import org.openmole.core.preference.Preference
+import org.openmole.core.serializer.SerializerService
 import org.openmole.core.threadprovider._
 import org.openmole.core.workspace._
 import org.openmole.tool.cache._
@@ -49,9 +50,10 @@ object MoleServices {
    * @param fileService
    * @param workspace
    * @param outputRedirection
+   * @param serializerService serializer of the journal, a new one is created if none is in the implicit scope
    * @return
    */
-  implicit def create(implicit preference: Preference, seeder: Seeder, threadProvider: ThreadProvider, eventDispatcher: EventDispatcher, newFile: NewFile, fileService: FileService, workspace: Workspace, outputRedirection: OutputRedirection, loggerService: LoggerService) = {
+  implicit def create(implicit preference: Preference, seeder: Seeder, threadProvider: ThreadProvider, eventDispatcher: EventDispatcher, newFile: NewFile, fileService: FileService, workspace: Workspace, outputRedirection: OutputRedirection, loggerService: LoggerService, serializerService: SerializerService = SerializerService()) = {
     new MoleServices()(
       preference = preference,
       seeder = Seeder(seeder.newSeed),
@@ -62,7 +64,8 @@ object MoleServices {
       fileService = fileService,
       fileServiceCache = FileServiceCache(),
       outputRedirection = outputRedirection,
-      loggerService = loggerService
+      loggerService = loggerService,
+      serializerService = serializerService
     )
   }
 
@@ -76,7 +79,8 @@ object MoleServices {
     fileServiceCache:  FileServiceCache  = moleServices.fileServiceCache,
     workspace:         Workspace         = moleServices.workspace,
     outputRedirection: OutputRedirection = moleServices.outputRedirection,
-    loggerService:     LoggerService     = moleServices.loggerService) =
+    loggerService:     LoggerService     = moleServices.loggerService,
+    serializerService: SerializerService = moleServices.serializerService) =
     new MoleServices()(
       preference = preference,
       seeder = seeder,
@@ -87,7 +91,8 @@ object MoleServices {
       fileService = fileService,
       fileServiceCache = fileServiceCache,
       outputRedirection = outputRedirection,
-      loggerService = loggerService
+      loggerService = loggerService,
+      serializerService = serializerService
     )
 }
 
@@ -103,6 +108,7 @@ object MoleServices {
  * @param fileService
  * @param fileServiceCache
  * @param outputRedirection
+ * @param serializerService
  */
 class MoleServices(
   implicit
@@ -115,7 +121,8 @@ class MoleServices(
   val fileService:       FileService,
   val fileServiceCache:  FileServiceCache,
   val outputRedirection: OutputRedirection,
-  val loggerService:     LoggerService
+  val loggerService:     LoggerService,
+  val serializerService: SerializerService
 ) {
   def newRandom = Lazy(seeder.newRNG)
   implicit lazy val defaultRandom = newRandom
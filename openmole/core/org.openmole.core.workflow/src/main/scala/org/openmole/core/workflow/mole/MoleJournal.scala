@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.workflow.mole
+
+import java.io.File
+import java.nio.file.{ Files, StandardCopyOption }
+import java.util.UUID
+import java.util.concurrent.{ CompletableFuture, ConcurrentHashMap, ExecutorService }
+import java.util.function.BiConsumer
+
+import org.openmole.core.context.{ Context, Variable }
+import org.openmole.core.serializer.SerializerService
+import org.openmole.core.workspace.NewFile
+import org.openmole.tool.hash._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.util.Try
+
+object MoleJournal {
+  val Suffix = ".tar"
+
+  def apply(directory: File)(implicit serializerService: SerializerService) = new MoleJournal(directory)
+
+  /**
+   * Content of a file in the key of a job, files are produced in a new location by each execution so they are
+   * identified by their content
+   */
+  case class FileContent(hash: String)
+
+  def normalize(value: Any): Any =
+    value match {
+      case f: File if f.isDirectory ⇒
+        val walk = Files.walk(f.toPath)
+        val files = try walk.iterator().asScala.filter(p ⇒ Files.isRegularFile(p)).toVector finally walk.close()
+        FileContent(hashString(files.map(p ⇒ f.toPath.relativize(p).toString → hashFile(p.toFile).toString).sorted.mkString("\n")).toString)
+      case f: File if f.exists ⇒ FileContent(hashFile(f).toString)
+      case a: Array[_]         ⇒ a.toVector.map(normalize)
+      case v                   ⇒ v
+    }
+}
+
+/**
+ * Write ahead journal of the jobs completed by a mole execution. Each result is written atomically in its own file
+ * of the journal directory, so a record is either complete or absent whatever the moment the JVM stops.
+ *
+ * A job is identified by its capsule and its input context, the seed excepted and the files identified by their
+ * content. When a mole is executed again with the same journal, the jobs found in the journal are not executed again,
+ * their result is replayed instead so that the explorations, aggregations and counters are rebuilt. Jobs with
+ * identical keys are replayed as many times as they have been recorded. The results are recorded asynchronously, a
+ * result which was not recorded when the JVM stopped is computed again.
+ *
+ * @param directory the directory of the journal, it is kept after the execution
+ */
+class MoleJournal(val directory: File)(implicit serializerService: SerializerService) {
+
+  private val records = {
+    val map = mutable.HashMap[String, mutable.Queue[File]]()
+    for {
+      f ← Option(directory.listFiles).toSeq.flatten.sortBy(_.getName)
+    } {
+      // records being written when the JVM stopped
+      if (f.getName.endsWith(".tmp")) f.delete()
+      else if (f.getName.endsWith(MoleJournal.Suffix)) map.getOrElseUpdate(f.getName.takeWhile(_ != '-'), mutable.Queue()) += f
+    }
+    map
+  }
+
+  def key(capsuleIndex: Int, capsule: MoleCapsule, context: Context) = {
+    val variables = (context - Variable.openMOLESeed).variables.values.toVector.map(v ⇒ (v.prototype.name, v.prototype.`type`.toString, MoleJournal.normalize(v.value)))
+    hashString(capsuleIndex + capsule.task.getClass.getName + serializerService.serialize(variables)).toString
+  }
+
+  /**
+   * Result of a previous execution of a job, each record is replayed once per execution
+   */
+  def replay(key: String)(implicit newFile: NewFile): Option[Context] = synchronized {
+    records.get(key).flatMap { q ⇒
+      if (q.isEmpty) None
+      else {
+        val (context, _) = serializerService.deserializeAndExtractFiles[Context](q.dequeue())
+        Some(context)
+      }
+    }
+  }
+
+  private val pending = ConcurrentHashMap.newKeySet[CompletableFuture[Void]]()
+
+  /**
+   * Record the result of a job on the pool so that the archiving of its files does not delay the caller, the
+   * pending records are awaited by [[flush]]
+   */
+  def recordAsync(key: String, context: Context, pool: ExecutorService)(onError: Throwable ⇒ Unit)(implicit newFile: NewFile) = {
+    val future =
+      CompletableFuture.runAsync(new Runnable {
+        override def run() =
+          try record(key, context)
+          catch {
+            case t: Throwable ⇒ onError(t)
+          }
+      }, pool)
+
+    pending.add(future)
+    future.whenComplete(new BiConsumer[Void, Throwable] {
+      override def accept(r: Void, t: Throwable) = pending.remove(future)
+    })
+  }
+
+  /**
+   * Wait for the pending records, the files of the recorded contexts must not be deleted before
+   */
+  def flush() = pending.asScala.toVector.foreach(f ⇒ Try(f.join()))
+
+  def record(key: String, context: Context)(implicit newFile: NewFile) = {
+    directory.mkdirs()
+    val tmp = Files.createTempFile(directory.toPath, key, ".tmp")
+    try {
+      serializerService.serializeAndArchiveFiles(context, tmp.toFile)
+      Files.move(tmp, new File(directory, s"$key-${UUID.randomUUID}${MoleJournal.Suffix}").toPath, StandardCopyOption.ATOMIC_MOVE)
+    }
+    finally Files.deleteIfExists(tmp)
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.workflow.mole
+
+import org.openmole.core.context.{ ContextSlots, PrototypeSet, ValType, Variable }
+import org.openmole.core.exception.InternalProcessingError
+import org.openmole.core.workflow.transition._
+import org.openmole.core.workflow.validation.TypeUtil
+
+import scala.collection.mutable.{ HashSet, ListBuffer }
+
+object MoleTopology {
+
+  def apply(mole: Mole, sources: Sources, hooks: Hooks) = new MoleTopology(mole, sources, hooks)
+
+  /**
+   * Aggregation transitions closing an exploration transition
+   */
+  def explorationAggregationTransitions(mole: Mole, transition: IExplorationTransition): Vector[IAggregationTransition] = {
+    val alreadySeen = new HashSet[MoleCapsule]
+    val toProcess = new ListBuffer[(MoleCapsule, Int)]
+    val found = new ListBuffer[IAggregationTransition]
+    toProcess += ((transition.end.capsule, 0))
+
+    while (!toProcess.isEmpty) {
+      val (capsule, level) = toProcess.remove(0)
+
+      if (!alreadySeen(capsule)) {
+        alreadySeen += capsule
+
+        mole.outputTransitions(capsule).foreach {
+          case t: IAggregationTransition ⇒
+            if (level > 0) toProcess += t.end.capsule → (level - 1)
+            else if (level == 0) found += t
+          case t: IExplorationTransition ⇒ toProcess += t.end.capsule → (level + 1)
+          case t                         ⇒ toProcess += t.end.capsule → level
+        }
+      }
+    }
+
+    found.toVector
+  }
+
+  /**
+   * The other aggregation transitions closing the same explorations as an aggregation transition
+   */
+  def sameLevelAggregationTransitions(mole: Mole, aggregationTransition: IAggregationTransition): Vector[IAggregationTransition] = {
+    val alreadySeen = new HashSet[MoleCapsule]
+    val toProcess = new ListBuffer[(MoleCapsule, Int)]
+    val found = new ListBuffer[IAggregationTransition]
+    toProcess += ((aggregationTransition.start, 0))
+
+    while (!toProcess.isEmpty) {
+      val (capsule, level) = toProcess.remove(0)
+
+      if (!alreadySeen(capsule)) {
+        alreadySeen += capsule
+        mole.slots(capsule).toList.flatMap { mole.inputTransitions }.foreach {
+          case t: IExplorationTransition ⇒ if (level > 0) toProcess += ((t.start, level - 1))
+          case t: IAggregationTransition ⇒
+            if (level == 0 && t != aggregationTransition) found += t
+            toProcess += ((t.start, level + 1))
+          case t ⇒ toProcess += ((t.start, level))
+        }
+        mole.outputTransitions(capsule).foreach {
+          case t: IExplorationTransition ⇒ toProcess += ((t.end.capsule, level + 1))
+          case t: IAggregationTransition ⇒
+            if (level == 0 && t != aggregationTransition) found += t
+            if (level > 0) toProcess += ((t.end.capsule, level - 1))
+          case t ⇒ toProcess += ((t.end.capsule, level))
+        }
+      }
+    }
+
+    found.distinct.toVector
+  }
+
+}
+
+/**
+ * Immutable index of the structure of a mole for a given set of sources and hooks. It is built once per mole
+ * execution so that the execution does not walk the graph of the mole for each job. The capsules are numbered in
+ * their order of appearance in the transitions, this numbering is the same for each execution of a mole.
+ */
+class MoleTopology(val mole: Mole, sourceMap: Sources, hookMap: Hooks) {
+
+  val capsules: Vector[MoleCapsule] =
+    (mole.root :: mole.transitions.toList.flatMap(t ⇒ List(t.start, t.end.capsule)) ::: mole.dataChannels.toList.flatMap(d ⇒ List(d.start, d.end.capsule))).distinct
+
+  private val ids = capsules.zipWithIndex.toMap
+
+  def id(capsule: MoleCapsule) = ids.getOrElse(capsule, throw new InternalProcessingError(s"Capsule $capsule not found in $mole"))
+
+  private val levels = capsules.map(c ⇒ mole.levels.getOrElse(c, 0)).toArray
+  private val slotNumbers = capsules.map(c ⇒ mole.slots(c).size).toArray
+
+  // transitions towards the capsules with the most slots first, so that the jobs joining several branches are
+  // submitted as soon as possible
+  private val outputTransitionArray =
+    capsules.map(c ⇒ mole.outputTransitions(c).toVector.sortBy(t ⇒ mole.slots(t.end.capsule).size).reverse).toArray
+
+  private val sourceArray = capsules.map(c ⇒ sourceMap(c).toVector).toArray
+  private val hookArray = capsules.map(c ⇒ hookMap(c).toVector).toArray
+
+  private lazy val inputArray = capsules.map(_.inputs(mole, sourceMap, hookMap)).toArray
+  private lazy val outputArray = capsules.map(_.outputs(mole, sourceMap, hookMap)).toArray
+
+  /** Slots of the prototypes of the mole, the contexts of the jobs store their variables in these slots */
+  lazy val contextSlots = ContextSlots((capsules.flatMap(c ⇒ inputs(c) ++ outputs(c)).map(_.name) :+ Variable.openMOLESeed.name).toSet)
+
+  private lazy val toArrayManifestMap =
+    (for {
+      c ← capsules
+      slot ← mole.slots(c)
+    } yield slot → TypeUtil.validTypes(mole, sourceMap, hookMap)(slot).filter(_.toArray).map(ct ⇒ ct.name → ct.`type`).toMap[String, ValType[_]]).toMap
+
+  private lazy val explorationAggregations =
+    mole.transitions.collect { case t: IExplorationTransition ⇒ t → MoleTopology.explorationAggregationTransitions(mole, t) }.toMap
+
+  private lazy val sameLevelAggregations =
+    mole.transitions.collect { case t: IAggregationTransition ⇒ t → MoleTopology.sameLevelAggregationTransitions(mole, t) }.toMap
+
+  def level(capsule: MoleCapsule) = levels(id(capsule))
+  def slots(capsule: MoleCapsule) = slotNumbers(id(capsule))
+  def outputTransitions(capsule: MoleCapsule) = outputTransitionArray(id(capsule))
+  def sources(capsule: MoleCapsule) = sourceArray(id(capsule))
+  def hooks(capsule: MoleCapsule) = hookArray(id(capsule))
+  def inputs(capsule: MoleCapsule): PrototypeSet = inputArray(id(capsule))
+  def outputs(capsule: MoleCapsule): PrototypeSet = outputArray(id(capsule))
+
+  /** Types of the variables received as arrays by a slot */
+  def toArrayManifests(slot: TransitionSlot) = toArrayManifestMap.getOrElse(slot, Map.empty[String, ValType[_]])
+
+  def aggregationTransitions(transition: IExplorationTransition) =
+    explorationAggregations.getOrElse(transition, MoleTopology.explorationAggregationTransitions(mole, transition))
+
+  def sameLevelAggregationTransitions(transition: IAggregationTransition) =
+    sameLevelAggregations.getOrElse(transition, MoleTopology.sameLevelAggregationTransitions(mole, transition))
+
+}
@@ -34,43 +34,67 @@ import org.openmole.core.workflow.tools._
  */
 object ExplorationTask {
 
+  /**
+   * Samples pulled lazily from a sampling by the exploration transition, the iterator can be read only once
+   */
+  class Samples(val iterator: Iterator[Iterable[Variable[_]]])
+
+  /**
+   * Samples of a streamed exploration, in this case the explored arrays output by the task are empty
+   */
+  val samples = Val[Samples]("samples", namespace = Variable.openMOLENameSpace)
+
   /**
    * Explore a given sampling: gets the prototype values in the sampling from the context to construct the context with all values,
    * wrapped as a [[FromContextTask]].
    * Values assignment is done with insecure casting, and an exception is caught and piped as a [[UserBadDataError]] if the conversion can not be done.
    *
+   * When stream is true the sampling is not evaluated by the task, the exploration transition pulls the samples from
+   * it as the jobs of the exploration complete, so that the samples are never held in memory all at once. The
+   * streamed samples are not recorded in the journal of the mole execution and the task must run locally.
+   *
    * @param sampling
+   * @param stream pull the samples lazily from the sampling
    * @return
    */
-  def apply(sampling: Sampling)(implicit name: sourcecode.Name, definitionScope: DefinitionScope) =
+  def apply(sampling: Sampling, stream: Boolean = false)(implicit name: sourcecode.Name, definitionScope: DefinitionScope) =
     FromContextTask("ExplorationTask") { p ⇒
       import p._
 
-      val variablesValues = TreeMap.empty[Val[_], ArrayBuffer[Any]] ++ sampling.prototypes.map { p ⇒ p → p.`type`.manifest.newArrayBuilder().asInstanceOf[collection.mutable.ArrayBuilder[Any]] }
-
-      for {
-        sample ← sampling().from(context)
-        v ← sample
-      } variablesValues.get(v.prototype) match {
-        case Some(b) ⇒ b += v.value
-        case None    ⇒
+      if (stream) {
+        val prototypes = sampling.prototypes.toSet[Val[_]]
+        val sampled = sampling().from(context).map(_.filter(v ⇒ prototypes.contains(v.prototype)))
+        Context(sampling.prototypes.toSeq.map(f ⇒ Variable.unsecure(f.toArray, f.`type`.manifest.newArray(0))): _*) +
+          Variable(ExplorationTask.samples, new Samples(sampled))
       }
+      else {
+        val variablesValues = TreeMap.empty[Val[_], ArrayBuffer[Any]] ++ sampling.prototypes.map { p ⇒ p → p.`type`.manifest.newArrayBuilder().asInstanceOf[collection.mutable.ArrayBuilder[Any]] }
 
-      variablesValues.map {
-        case (k, v) ⇒
-          try {
-            Variable.unsecure(
-              k.toArray,
-              v.result
-            )
-          }
-          catch {
-            case e: ArrayStoreException ⇒ throw new UserBadDataError("Cannot fill factor values in " + k.toArray + ", values " + v)
-          }
-      }: Context
+        for {
+          sample ← sampling().from(context)
+          v ← sample
+        } variablesValues.get(v.prototype) match {
+          case Some(b) ⇒ b += v.value
+          case None    ⇒
+        }
+
+        variablesValues.map {
+          case (k, v) ⇒
+            try {
+              Variable.unsecure(
+                k.toArray,
+                v.result
+              )
+            }
+            catch {
+              case e: ArrayStoreException ⇒ throw new UserBadDataError("Cannot fill factor values in " + k.toArray + ", values " + v)
+            }
+        }: Context
+      }
     } set (
       inputs += (sampling.inputs.toSeq: _*),
-      exploredOutputs += (sampling.prototypes.toSeq.map(_.toArray): _*)
+      exploredOutputs += (sampling.prototypes.toSeq.map(_.toArray): _*),
+      outputs += (Seq(samples).filter(_ ⇒ stream): _*)
     )
 
   /**
@@ -108,7 +108,7 @@ object MoleTask {
     val lastContextLock = new ReentrantLock()
 
     val (execution, executionNewFile) = {
-      implicit val eventDispatcher = EventDispatcher()
+      implicit val eventDispatcher = EventDispatcher(executionContext.threadProvider.threadFactory)
       val implicitsValues = implicits.flatMap(i ⇒ context.get(i))
       implicit val seeder = Seeder(random().nextLong())
       implicit val newFile = NewFile(executionContext.tmpDirectory)
@@ -30,7 +30,7 @@ object Stubs {
   implicit lazy val seeder = Seeder()
   implicit val serializer = SerializerService()
   implicit val threadProvider = ThreadProvider(Some(10))
-  implicit val eventDispatcher = EventDispatcher()
+  implicit val eventDispatcher = EventDispatcher(threadProvider.threadFactory)
   implicit val fileService = FileService()
   implicit val randomProvider = RandomProvider(seeder.newRNG)
   implicit val outputRedirection = OutputRedirection()
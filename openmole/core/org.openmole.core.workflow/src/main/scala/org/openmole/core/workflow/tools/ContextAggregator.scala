@@ -22,6 +22,18 @@ import org.openmole.core.exception._
 
 object ContextAggregator {
 
+  /**
+   * Set the value of a variable in an array, the values of the primitive variables are copied without boxing
+   */
+  def set(array: Any, i: Int, v: Variable[_]) =
+    (array, v.prototype.`type`.runtimeClass) match {
+      case (a: Array[Double], t) if t == classOf[Double]   ⇒ a(i) = v.asInstanceOf[Variable[Double]].value
+      case (a: Array[Int], t) if t == classOf[Int]         ⇒ a(i) = v.asInstanceOf[Variable[Int]].value
+      case (a: Array[Long], t) if t == classOf[Long]       ⇒ a(i) = v.asInstanceOf[Variable[Long]].value
+      case (a: Array[Boolean], t) if t == classOf[Boolean] ⇒ a(i) = v.asInstanceOf[Variable[Boolean]].value
+      case (a, _)                                          ⇒ java.lang.reflect.Array.set(a, i, v.value)
+    }
+
   def aggregate(prototypes: PrototypeSet, toArray: PartialFunction[String, ValType[_]], toAggregateList: Iterable[(Long, Variable[_])]): Context = {
     val toAggregate = toAggregateList.groupBy { case (_, v) ⇒ v.prototype.name }
 
@@ -34,7 +46,7 @@ object ContextAggregator {
           val array = `type`.manifest.newArray(merging.size)
           merging.zipWithIndex.foreach {
             e ⇒
-              try java.lang.reflect.Array.set(array, e._2, e._1.value)
+              try set(array, e._2, e._1)
               catch {
                 case t: Throwable ⇒
                   def valType = if (e._1.value != null) " of type ${e._1.value.getClass}" else ""
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.core.workflow.transition
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+import org.openmole.core.context.{ Context, Val, Variable }
+import org.openmole.core.exception.{ InternalProcessingError, UserBadDataError }
+import org.openmole.core.preference.{ ConfigurationLocation, Preference }
+import org.openmole.core.workspace.NewFile
+import org.openmole.tool.stream._
+
+import scala.collection.immutable.TreeMap
+import scala.runtime.ScalaRunTime
+
+object AggregationStore {
+
+  /** Size in bytes above which a numeric column is stored in a memory mapped file instead of the heap */
+  val spillThreshold = ConfigurationLocation("AggregationTransition", "SpillThreshold", Some(64L * 1024 * 1024))
+
+  def apply(vals: Vector[Val[_]], capacity: Int)(implicit preference: Preference, newFile: NewFile) = {
+    val threshold = preference(spillThreshold)
+
+    def column(v: Val[_]): Column =
+      v.`type`.runtimeClass match {
+        case c if c == classOf[Double] ⇒ new DoubleColumn(new ColumnStorage(threshold), capacity)
+        case c if c == classOf[Long]   ⇒ new LongColumn(new ColumnStorage(threshold), capacity)
+        case c if c == classOf[Int]    ⇒ new IntColumn(new ColumnStorage(threshold), capacity)
+        case _                         ⇒ new ObjectColumn(v, capacity)
+      }
+
+    new AggregationStore(vals, vals.map(column), capacity)
+  }
+
+  /**
+   * Allocate the buffers of a column, on the heap or in a memory mapped file past the threshold
+   */
+  class ColumnStorage(threshold: Long)(implicit newFile: NewFile) {
+    private var file: Option[File] = None
+
+    def allocate(bytes: Long): ByteBuffer = {
+      val previous = file
+
+      val buffer =
+        if (bytes <= threshold) {
+          file = None
+          ByteBuffer.allocate(bytes.toInt)
+        }
+        else {
+          if (bytes > Int.MaxValue) throw new InternalProcessingError(s"Aggregation column of $bytes bytes exceeds the maximum size of a mapped buffer")
+          val f = newFile.newFile("aggregation", ".bin")
+          file = Some(f)
+          withClosable(FileChannel.open(f.toPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            _.map(FileChannel.MapMode.READ_WRITE, 0, bytes)
+          }
+        }
+
+      previous.foreach(_.delete())
+      buffer
+    }
+
+    def release() = {
+      file.foreach(_.delete())
+      file = None
+    }
+  }
+
+  /**
+   * Values of a prototype stored in the order of the tickets of the jobs, the results mostly arrive in this order so
+   * that they are appended at the end of the column
+   */
+  sealed trait Column {
+    /** Insert the value at position in a column of size values, the following values are shifted */
+    def insert(position: Int, size: Int, variable: Variable[_]): Unit
+    def grow(capacity: Int): Unit
+
+    /** Array of the size first values of the column */
+    def assemble(size: Int): Any
+
+    /** Array of the size first values of the column, for a column read repeatedly as it grows */
+    def read(size: Int): Any
+    def release(): Unit
+  }
+
+  /**
+   * Column stored in a byte buffer. Once the column has been read, its values are also kept in a heap array of the
+   * capacity of the buffer, maintained as the values are inserted, so that reading it again copies an array instead of
+   * decoding the buffer.
+   */
+  abstract class BufferColumn(storage: ColumnStorage, elementSize: Int, capacity: Int) extends Column {
+    protected var buffer = storage.allocate(capacity.toLong * elementSize)
+    protected var mirror: AnyRef = null
+
+    protected def set(index: Int, variable: Variable[_]): Unit
+    protected def setMirror(index: Int, variable: Variable[_]): Unit
+    protected def newArray(size: Int): AnyRef
+
+    /** Copy the size first values of the buffer to array */
+    protected def decode(size: Int, array: AnyRef): Unit
+
+    def insert(position: Int, size: Int, variable: Variable[_]) = {
+      if (position < size) {
+        val tail = new Array[Byte]((size - position) * elementSize)
+        val source = buffer.duplicate()
+        source.position(position * elementSize)
+        source.get(tail)
+        val destination = buffer.duplicate()
+        destination.position((position + 1) * elementSize)
+        destination.put(tail)
+      }
+
+      set(position, variable)
+
+      if (mirror != null) {
+        System.arraycopy(mirror, position, mirror, position + 1, size - position)
+        setMirror(position, variable)
+      }
+    }
+
+    def grow(capacity: Int) = {
+      val previous = buffer
+      buffer = storage.allocate(capacity.toLong * elementSize)
+      previous.clear()
+      buffer.put(previous)
+      buffer.clear()
+
+      if (mirror != null) {
+        val newMirror = newArray(capacity)
+        System.arraycopy(mirror, 0, newMirror, 0, math.min(capacity, ScalaRunTime.array_length(mirror)))
+        mirror = newMirror
+      }
+    }
+
+    def assemble(size: Int) = {
+      val result = newArray(size)
+      decode(size, result)
+      result
+    }
+
+    def read(size: Int) = {
+      if (mirror == null) {
+        mirror = newArray(buffer.capacity / elementSize)
+        decode(size, mirror)
+      }
+
+      val result = newArray(size)
+      System.arraycopy(mirror, 0, result, 0, size)
+      result
+    }
+
+    protected def values = {
+      val b = buffer.duplicate()
+      b.clear()
+      b
+    }
+
+    def release() = {
+      mirror = null
+      storage.release()
+    }
+  }
+
+  class DoubleColumn(storage: ColumnStorage, capacity: Int) extends BufferColumn(storage, 8, capacity) {
+    protected def set(index: Int, variable: Variable[_]) = buffer.putDouble(index * 8, variable.asInstanceOf[Variable[Double]].value)
+    protected def setMirror(index: Int, variable: Variable[_]) = (mirror.asInstanceOf[Array[Double]])(index) = variable.asInstanceOf[Variable[Double]].value
+    protected def newArray(size: Int) = new Array[Double](size)
+    protected def decode(size: Int, array: AnyRef) = values.asDoubleBuffer.get(array.asInstanceOf[Array[Double]], 0, size)
+  }
+
+  class LongColumn(storage: ColumnStorage, capacity: Int) extends BufferColumn(storage, 8, capacity) {
+    protected def set(index: Int, variable: Variable[_]) = buffer.putLong(index * 8, variable.asInstanceOf[Variable[Long]].value)
+    protected def setMirror(index: Int, variable: Variable[_]) = (mirror.asInstanceOf[Array[Long]])(index) = variable.asInstanceOf[Variable[Long]].value
+    protected def newArray(size: Int) = new Array[Long](size)
+    protected def decode(size: Int, array: AnyRef) = values.asLongBuffer.get(array.asInstanceOf[Array[Long]], 0, size)
+  }
+
+  class IntColumn(storage: ColumnStorage, capacity: Int) extends BufferColumn(storage, 4, capacity) {
+    protected def set(index: Int, variable: Variable[_]) = buffer.putInt(index * 4, variable.asInstanceOf[Variable[Int]].value)
+    protected def setMirror(index: Int, variable: Variable[_]) = (mirror.asInstanceOf[Array[Int]])(index) = variable.asInstanceOf[Variable[Int]].value
+    protected def newArray(size: Int) = new Array[Int](size)
+    protected def decode(size: Int, array: AnyRef) = values.asIntBuffer.get(array.asInstanceOf[Array[Int]], 0, size)
+  }
+
+  /**
+   * Column of the other types, the values are stored in an array of the type of the prototype so that the arrays are
+   * assembled by copy
+   */
+  class ObjectColumn(v: Val[_], capacity: Int) extends Column {
+    private def newArray(size: Int): AnyRef = v.`type`.manifest.newArray(size).asInstanceOf[AnyRef]
+
+    private var values = newArray(capacity)
+
+    def insert(position: Int, size: Int, variable: Variable[_]) = {
+      System.arraycopy(values, position, values, position + 1, size - position)
+      ScalaRunTime.array_update(values, position, variable.value)
+    }
+
+    def grow(capacity: Int) = {
+      val newValues = newArray(capacity)
+      System.arraycopy(values, 0, newValues, 0, math.min(capacity, ScalaRunTime.array_length(values)))
+      values = newValues
+    }
+
+    def assemble(size: Int) = {
+      val result = newArray(size)
+      System.arraycopy(values, 0, result, 0, size)
+      result
+    }
+
+    def read(size: Int) = assemble(size)
+
+    def release() = values = newArray(0)
+  }
+
+}
+
+/**
+ * Columnar store of the results collected by an aggregation transition. Int, Long and Double values are stored
+ * unboxed, in a memory mapped file when a column exceeds the spill threshold. The columns are kept in the order of the
+ * tickets of the jobs as the results are appended, the results arriving in this order are written at the end of the
+ * columns, so that the arrays are assembled by copy at any time, as required to evaluate the trigger of an
+ * aggregation transition.
+ *
+ * @param vals the aggregated prototypes
+ * @param columns one column per prototype
+ * @param capacity the expected number of results, the store grows if more results are appended
+ */
+class AggregationStore(val vals: Vector[Val[_]], columns: Vector[AggregationStore.Column], capacity: Int) {
+  // ids of the results in increasing order
+  private var sortedIds = new Array[Long](capacity)
+  private var count = 0
+
+  def size = count
+
+  def append(id: Long, context: Context) = {
+    if (count == sortedIds.length) {
+      val newCapacity = math.max(1, sortedIds.length * 2)
+      sortedIds = java.util.Arrays.copyOf(sortedIds, newCapacity)
+      columns.foreach(_.grow(newCapacity))
+    }
+
+    // the ids mostly arrive in increasing order, the results sharing an id are kept in their order of arrival
+    val position =
+      if (count == 0 || sortedIds(count - 1) <= id) count
+      else upperBound(id)
+
+    // the values of the specialized variables are read unboxed by the numeric columns
+    val variables = vals.map(v ⇒ context.variable(v).getOrElse(throw new UserBadDataError(s"Variable $v has not been found in the context")))
+    for ((variable, c) ← variables zip columns) c.insert(position, count, variable)
+
+    System.arraycopy(sortedIds, position, sortedIds, position + 1, count - position)
+    sortedIds(position) = id
+    count += 1
+  }
+
+  /** Position following the last id lower or equal to id */
+  private def upperBound(id: Long) = {
+    var low = 0
+    var high = count
+    while (low < high) {
+      val middle = (low + high) >>> 1
+      if (sortedIds(middle) <= id) low = middle + 1 else high = middle
+    }
+    low
+  }
+
+  def aggregate: Context = (vals zip columns).map { case (v, c) ⇒ Variable.unsecure(v, c.assemble(count)) }
+
+  /**
+   * View of the results appended so far, the array of a prototype is copied only when it is read, so that
+   * evaluating a trigger at each result does not copy the prototypes it does not use. The columns read by a view are
+   * kept on the heap as they grow, a read copies the values appended so far. The view must be read before the next
+   * result is appended.
+   */
+  def view: Context = {
+    val viewSize = count
+    val columnsByName = (vals zip columns).map { case (v, c) ⇒ v.name → (v, c) }.toMap
+
+    new Context {
+      private val assembled = collection.mutable.HashMap[String, Variable[_]]()
+
+      override def get(key: String): Option[Variable[_]] = synchronized {
+        assembled.get(key) orElse columnsByName.get(key).map {
+          case (v, c) ⇒
+            val variable = Variable.unsecure(v, c.read(viewSize))
+            assembled.put(key, variable)
+            variable
+        }
+      }
+
+      lazy val variables = TreeMap.empty[String, Variable[_]] ++ vals.flatMap(v ⇒ get(v.name)).map(v ⇒ v.prototype.name → v)
+    }
+  }
+
+  /** Release the memory mapped files of the store */
+  def release() = columns.foreach(_.release())
+}
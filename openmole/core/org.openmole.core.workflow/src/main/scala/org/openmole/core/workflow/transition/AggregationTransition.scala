@@ -22,40 +22,18 @@ import org.openmole.core.exception.{ InternalProcessingError, UserBadDataError }
 import org.openmole.core.expansion.Condition
 import org.openmole.core.fileservice.FileService
 import org.openmole.core.workflow.dsl
-import org.openmole.core.workflow.mole.MoleExecution.{ AggregationTransitionRegistryRecord, SubMoleExecutionState }
+import org.openmole.core.workflow.mole.MoleExecution.SubMoleExecutionState
 import org.openmole.core.workflow.mole._
 import org.openmole.core.workflow.tools._
 import org.openmole.core.workflow.validation._
 import org.openmole.tool.lock._
 import org.openmole.tool.random.RandomProvider
 
-import scala.collection.mutable
-import scala.collection.mutable.{ HashSet, ListBuffer }
-
 object AggregationTransition {
 
-  def aggregatedOutputs(moleExecution: MoleExecution, transition: IAggregationTransition) = transition.start.outputs(moleExecution.mole, moleExecution.sources, moleExecution.hooks).toVector
-
-  def aggregateOutputs(moleExecution: MoleExecution, transition: IAggregationTransition, results: AggregationTransitionRegistryRecord): Context = {
-    val vals = aggregatedOutputs(moleExecution, transition)
-    val resultValues = results.values.value
-    val size = resultValues.size
-
-    def resultsArrays = (resultValues zip results.ids.value).sortBy(_._2).unzip._1.transpose
-
-    def variables = (resultsArrays zip vals).map {
-      case (values, v) ⇒
-        val result = v.`type`.manifest.newArray(values.size)
-        var i = 0
-        for { x ← values } {
-          java.lang.reflect.Array.set(result, i, x)
-          i += 1
-        }
-        Variable.unsecure(v, result)
-    }
+  def aggregatedOutputs(moleExecution: MoleExecution, transition: IAggregationTransition) = moleExecution.topology.outputs(transition.start).toVector
 
-    new mutable.WrappedArray.ofRef(variables)
-  }
+  def aggregateOutputs(moleExecution: MoleExecution, transition: IAggregationTransition, results: AggregationStore): Context = results.aggregate
 
   def aggregate(aggregationTransition: IAggregationTransition, subMole: SubMoleExecutionState, ticket: Ticket, executionContext: MoleExecutionContext) = {
     import executionContext.services._
@@ -63,47 +41,15 @@ object AggregationTransition {
     if ( /*!subMole.canceled && */ !hasBeenPerformed(aggregationTransition, subMole, ticket)) {
       val results = subMole.aggregationTransitionRegistry.remove(aggregationTransition, ticket).getOrElse(throw new InternalProcessingError("No context registered for the aggregation transition"))
       val subMoleParent = subMole.parent.getOrElse(throw new InternalProcessingError("SubMole execution has no parent"))
-      val aggregated = aggregateOutputs(subMole.moleExecution, aggregationTransition, results)
+      val aggregated = try aggregateOutputs(subMole.moleExecution, aggregationTransition, results) finally results.release()
       if (aggregationTransition.condition.from(aggregated)) ITransition.submitNextJobsIfReady(aggregationTransition)(aggregated.values, ticket, subMoleParent)
     }
   }
 
   def hasBeenPerformed(aggregationTransition: IAggregationTransition, subMole: SubMoleExecutionState, ticket: Ticket): Boolean = !subMole.aggregationTransitionRegistry.isRegistred(aggregationTransition, ticket)
 
-  def allAggregationTransitionsPerformed(aggregationTransition: IAggregationTransition, subMole: SubMoleExecutionState, ticket: Ticket) = {
-
-    def oneAggregationTransitionNotPerformed(subMole: SubMoleExecutionState, ticket: Ticket): Boolean = {
-      val mole = subMole.moleExecution.mole
-      val alreadySeen = new HashSet[MoleCapsule]
-      val toProcess = new ListBuffer[(MoleCapsule, Int)]
-      toProcess += ((aggregationTransition.start, 0))
-
-      while (!toProcess.isEmpty) {
-        val (capsule, level) = toProcess.remove(0)
-
-        if (!alreadySeen(capsule)) {
-          alreadySeen += capsule
-          mole.slots(capsule).toList.flatMap { mole.inputTransitions }.foreach {
-            case t: IExplorationTransition ⇒ if (level > 0) toProcess += ((t.start, level - 1))
-            case t: IAggregationTransition ⇒
-              if (level == 0 && t != aggregationTransition && !hasBeenPerformed(t, subMole, ticket)) return true
-              toProcess += ((t.start, level + 1))
-            case t ⇒ toProcess += ((t.start, level))
-          }
-          mole.outputTransitions(capsule).foreach {
-            case t: IExplorationTransition ⇒ toProcess += ((t.end.capsule, level + 1))
-            case t: IAggregationTransition ⇒
-              if (level == 0 && t != aggregationTransition && !hasBeenPerformed(t, subMole, ticket)) return true
-              if (level > 0) toProcess += ((t.end.capsule, level - 1))
-            case t ⇒ toProcess += ((t.end.capsule, level))
-          }
-        }
-      }
-      false
-    }
-
-    !oneAggregationTransitionNotPerformed(subMole, ticket)
-  }
+  def allAggregationTransitionsPerformed(aggregationTransition: IAggregationTransition, subMole: SubMoleExecutionState, ticket: Ticket) =
+    subMole.moleExecution.topology.sameLevelAggregationTransitions(aggregationTransition).forall(t ⇒ hasBeenPerformed(t, subMole, ticket))
 
 }
 
@@ -124,12 +70,10 @@ class AggregationTransition(val start: MoleCapsule, val end: TransitionSlot, val
       if ( /*!subMole.canceled && */ !AggregationTransition.hasBeenPerformed(this, subMoleState, parentTicket)) {
         subMoleState.aggregationTransitionRegistry.consult(this, parentTicket) match {
           case Some(results) ⇒
-            results.ids.append(ticket.content)
-            results.values.append(AggregationTransition.aggregatedOutputs(moleExecution, this).map(v ⇒ context(v)).toArray)
+            results.append(ticket.content, context)
 
             if (trigger != Condition.False) {
-              val context = AggregationTransition.aggregateOutputs(moleExecution, this, results)
-              if (trigger.from(context)) {
+              if (trigger.from(results.view)) {
                 val parentTicket = ticket.parent.getOrElse(throw new UserBadDataError("Aggregation transition should take place after an exploration"))
                 val subMoleParent = subMoleState.parent.getOrElse(throw new InternalProcessingError("SubMoleExecution has no parent"))
                 AggregationTransition.aggregate(this, subMoleParent, parentTicket, executionContext)
@@ -27,6 +27,9 @@ object DataChannel {
   def levelDelta(mole: Mole)(dataChannel: DataChannel): Int =
     mole.level(dataChannel.end.capsule) - mole.level(dataChannel.start)
 
+  def levelDelta(topology: MoleTopology)(dataChannel: DataChannel): Int =
+    topology.level(dataChannel.end.capsule) - topology.level(dataChannel.start)
+
   def apply(start: MoleCapsule, end: TransitionSlot, filter: BlockList) = new DataChannel(start, end, filter)
 
   /**
@@ -37,7 +40,7 @@ object DataChannel {
    * @return the variables which have been transmitted through this data channel
    */
   def consums(dataChannel: DataChannel, ticket: Ticket, moleExecution: MoleExecution): Iterable[Variable[_]] = {
-    val delta = dataChannel.levelDelta(moleExecution.mole)
+    val delta = levelDelta(moleExecution.topology)(dataChannel)
     val dataChannelRegistry = moleExecution.dataChannelRegistry
 
     val vars =
@@ -61,7 +64,7 @@ object DataChannel {
    * @param moleExecution the current mole execution
    */
   def provides(dataChannel: DataChannel, fromContext: Context, ticket: Ticket, moleExecution: MoleExecution): Unit = {
-    val delta = dataChannel.levelDelta(moleExecution.mole)
+    val delta = levelDelta(moleExecution.topology)(dataChannel)
     val dataChannelRegistry = moleExecution.dataChannelRegistry
 
     if (delta >= 0) {
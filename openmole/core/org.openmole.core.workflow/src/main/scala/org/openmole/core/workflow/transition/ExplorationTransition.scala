@@ -22,84 +22,135 @@ import org.openmole.core.event._
 import org.openmole.core.exception._
 import org.openmole.core.expansion.{ Condition, FromContext }
 import org.openmole.core.fileservice.FileService
+import org.openmole.core.preference.ConfigurationLocation
 import org.openmole.core.workflow.dsl
 import org.openmole.core.workflow.dsl._
-import org.openmole.core.workflow.mole.MoleExecution.{ AggregationTransitionRegistryRecord, SubMoleExecutionState }
+import org.openmole.core.workflow.mole.MoleExecution.SubMoleExecutionState
 import org.openmole.core.workflow.mole._
 import org.openmole.core.workflow.task._
 import org.openmole.core.workflow.validation._
 import org.openmole.core.workspace.NewFile
 import org.openmole.tool.lock._
 
-import scala.collection.mutable.{ HashSet, ListBuffer }
+import scala.collection.mutable.ListBuffer
+import scala.runtime.ScalaRunTime
 
 object ExplorationTransition {
 
+  /**
+   * Maximum number of jobs running in the sub mole of an exploration, the following samples are submitted as the jobs
+   * complete
+   */
+  val maxInFlightJobs = ConfigurationLocation("ExplorationTransition", "MaxInFlightJobs", Some(100000))
+
+  /** Initial capacity of the aggregation stores of a streamed exploration, the number of samples is not known upfront */
+  val streamedAggregationCapacity = 1024
+
   def registerAggregationTransitions(transition: ExplorationTransition, ticket: Ticket, subMoleExecution: SubMoleExecutionState, executionContext: MoleExecutionContext, size: Int) = {
-    val alreadySeen = new HashSet[MoleCapsule]
-    val toProcess = new ListBuffer[(MoleCapsule, Int)]
-    toProcess += ((transition.end.capsule, 0))
-    while (!toProcess.isEmpty) {
-      val cur = toProcess.remove(0)
-      val capsule = cur._1
-      val level = cur._2
-
-      if (!alreadySeen(capsule)) {
-        alreadySeen += capsule
-
-        subMoleExecution.moleExecution.mole.outputTransitions(capsule).foreach {
-          case t: IAggregationTransition ⇒
-            if (level > 0) toProcess += t.end.capsule → (level - 1)
-            else if (level == 0) {
-              subMoleExecution.aggregationTransitionRegistry.register(t, ticket, AggregationTransitionRegistryRecord(size))
-              subMoleExecution.onFinish += { se ⇒ AggregationTransition.aggregate(t, se, ticket, executionContext) }
-            }
-          case t: IExplorationTransition ⇒ toProcess += t.end.capsule → (level + 1)
-          case t                         ⇒ toProcess += t.end.capsule → level
-        }
-      }
+    import executionContext.services._
+    val topology = subMoleExecution.moleExecution.topology
+
+    for (t ← topology.aggregationTransitions(transition)) {
+      val store = AggregationStore(AggregationTransition.aggregatedOutputs(subMoleExecution.moleExecution, t), size)
+      subMoleExecution.aggregationTransitionRegistry.register(t, ticket, store)
+      subMoleExecution.onFinish += { se ⇒ AggregationTransition.aggregate(t, se, ticket, executionContext) }
     }
   }
 
   def factors(transition: ExplorationTransition, moleExecution: MoleExecution) = {
     def explored = ExplorationTask.explored(transition.start)
-    transition.start.outputs(moleExecution.mole, moleExecution.sources, moleExecution.hooks).partition(explored)
-    val (factors, outputs) = transition.start.outputs(moleExecution.mole, moleExecution.sources, moleExecution.hooks).partition(explored)
+    val (factors, outputs) = moleExecution.topology.outputs(transition.start).filterNot(_ == ExplorationTask.samples).partition(explored)
     val typedFactors = factors.map(_.asInstanceOf[Val[Array[Any]]])
     (typedFactors, outputs)
   }
 
+  object ExploredSamples {
+    /**
+     * Variable of the value of a factor for a sample, the values of the primitive arrays are read without boxing
+     */
+    def variable(p: Val[Any], column: Any, i: Int): Variable[_] =
+      (column, p.`type`.runtimeClass) match {
+        case (c: Array[Double], t) if t == classOf[Double]   ⇒ Variable.double(p.asInstanceOf[Val[Double]], c(i))
+        case (c: Array[Int], t) if t == classOf[Int]         ⇒ Variable.int(p.asInstanceOf[Val[Int]], c(i))
+        case (c: Array[Long], t) if t == classOf[Long]       ⇒ Variable.long(p.asInstanceOf[Val[Long]], c(i))
+        case (c: Array[Boolean], t) if t == classOf[Boolean] ⇒ Variable.boolean(p.asInstanceOf[Val[Boolean]], c(i))
+        case (c, _) ⇒
+          val v = ScalaRunTime.array_apply(c, i)
+          if (p.accepts(v)) Variable(p, v)
+          else throw new UserBadDataError("Found value of type " + v.asInstanceOf[AnyRef].getClass + " incompatible with prototype " + p)
+      }
+  }
+
+  /**
+   * Values of the explored factors, one array per factor. The samples are read by index so that they are never
+   * transposed in memory.
+   *
+   * @param factors the explored prototypes
+   * @param columns the array of values of each factor
+   */
+  class ExploredSamples(factors: Vector[Val[Any]], columns: Vector[Any]) {
+    val size = columns.headOption.map(ScalaRunTime.array_length).getOrElse(0)
+    if (columns.exists(c ⇒ ScalaRunTime.array_length(c) != size)) throw new UserBadDataError("The explored factors have different numbers of values")
+
+    def apply(i: Int): Vector[Variable[_]] = (factors zip columns).map { case (p, c) ⇒ ExploredSamples.variable(p, c, i) }
+    def iterator: Iterator[Vector[Variable[_]]] = Iterator.range(0, size).map(apply)
+  }
+
   def exploredSamples(transition: ExplorationTransition, context: Context, moleExecution: MoleExecution) = {
-    def values = factors(transition, moleExecution)._1.toArray.map(context(_).toArray).transpose
-    values
+    val explored = factors(transition, moleExecution)._1.toVector
+    new ExploredSamples(explored.map(_.fromArray), explored.map(f ⇒ context(f): Any))
   }
 
-  def submitIn(transition: ExplorationTransition, context: Context, ticket: Ticket, samples: Array[Array[Any]], subMole: SubMoleExecutionState, executionContext: MoleExecutionContext) = {
+  /**
+   * Samples of an exploration with their number, the samples are pulled from the sampling when the exploration task
+   * streams it, the number of samples is unknown in this case
+   */
+  def samples(transition: ExplorationTransition, context: Context, moleExecution: MoleExecution): (Iterator[Iterable[Variable[_]]], Option[Int]) =
+    context.get(ExplorationTask.samples) match {
+      case Some(streamed) ⇒ (streamed.iterator, None)
+      case None ⇒
+        val explored = exploredSamples(transition, context, moleExecution)
+        (explored.iterator, Some(explored.size))
+    }
+
+  def submitSample(transition: ExplorationTransition, context: Context, ticket: Ticket, outputs: Iterable[Val[_]], sample: Iterable[Variable[_]], subMole: SubMoleExecutionState, executionContext: MoleExecutionContext) = {
     val moleExecution = subMole.moleExecution
-    val mole = moleExecution.mole
-    val (typedFactors, outputs) = factors(transition, moleExecution)
-
-    for (value ← samples) {
-      val newTicket = MoleExecution.nextTicket(moleExecution, ticket)
-      val variables = new ListBuffer[Variable[_]]
-
-      for (in ← outputs)
-        context.variable(in) match {
-          case Some(v) ⇒ variables += v
-          case None    ⇒
-        }
-
-      for ((p, v) ← typedFactors zip value) {
-        val fp = p.fromArray
-        if (fp.accepts(v)) variables += Variable(fp, v)
-        else throw new UserBadDataError("Found value of type " + v.asInstanceOf[AnyRef].getClass + " incompatible with prototype " + fp)
+    val newTicket = MoleExecution.nextTicket(moleExecution, ticket)
+    val variables = new ListBuffer[Variable[_]]
+
+    for (in ← outputs)
+      context.variable(in) match {
+        case Some(v) ⇒ variables += v
+        case None    ⇒
       }
 
-      import executionContext.services._
+    variables ++= sample
+
+    import executionContext.services._
+
+    if (transition.condition.from(variables)) { ITransition.submitNextJobsIfReady(transition)(ListBuffer() ++ variables, newTicket, subMole) }
+  }
+
+  def submitIn(transition: ExplorationTransition, context: Context, ticket: Ticket, samples: Iterator[Iterable[Variable[_]]], subMole: SubMoleExecutionState, executionContext: MoleExecutionContext) = {
+    val (_, outputs) = factors(transition, subMole.moleExecution)
+    for (sample ← samples) submitSample(transition, context, ticket, outputs, sample, subMole, executionContext)
+  }
 
-      if (transition.condition.from(variables)) { ITransition.submitNextJobsIfReady(transition)(ListBuffer() ++ variables, newTicket, subMole) }
+  /**
+   * Submit the samples in a sub mole, at most maxInFlight jobs are running in the sub mole at once. The sub mole is fed
+   * with the next samples when its jobs finish, so that only the running jobs are held in memory.
+   */
+  def streamIn(transition: ExplorationTransition, context: Context, ticket: Ticket, samples: Iterator[Iterable[Variable[_]]], subMole: SubMoleExecutionState, executionContext: MoleExecutionContext, maxInFlight: Int) = {
+    val (_, outputs) = factors(transition, subMole.moleExecution)
+
+    def feed(state: SubMoleExecutionState): Unit = {
+      while (!state.canceled && state.nbJobs < maxInFlight && samples.hasNext)
+        submitSample(transition, context, ticket, outputs, samples.next, state, executionContext)
+      if (!samples.hasNext) state.feeder = None
     }
 
+    subMole.feeder = Some(feed)
+    feed(subMole)
   }
 
 }
@@ -114,9 +165,10 @@ class ExplorationTransition(val start: MoleCapsule, val end: TransitionSlot, val
   override def perform(context: Context, ticket: Ticket, moleExecution: MoleExecution, subMole: SubMoleExecution, executionContext: MoleExecutionContext) = MoleExecutionMessage.send(moleExecution) {
     MoleExecutionMessage.PerformTransition(subMole) { subMoleState ⇒
       val subSubMole = MoleExecution.newChildSubMoleExecution(subMoleState)
-      val samples = ExplorationTransition.exploredSamples(this, context, moleExecution)
-      ExplorationTransition.registerAggregationTransitions(this, ticket, subSubMole, executionContext, samples.size)
-      ExplorationTransition.submitIn(this, filtered(context), ticket, samples, subSubMole, executionContext)
+      val (samples, size) = ExplorationTransition.samples(this, context, moleExecution)
+      val maxInFlight = executionContext.services.preference(ExplorationTransition.maxInFlightJobs)
+      ExplorationTransition.registerAggregationTransitions(this, ticket, subSubMole, executionContext, size.getOrElse(ExplorationTransition.streamedAggregationCapacity))
+      ExplorationTransition.streamIn(this, filtered(context - ExplorationTask.samples), ticket, samples, subSubMole, executionContext, maxInFlight)
     }
   }
 
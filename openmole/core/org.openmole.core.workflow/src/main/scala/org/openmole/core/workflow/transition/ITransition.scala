@@ -44,14 +44,13 @@ object ITransition {
 
       val combinasion = (dataChannelVariables ++ transitionsVariables)
 
+      val topology = subMoleState.moleExecution.topology
+
       val newTicket =
-        if (mole.slots(transition.end.capsule).size <= 1) ticket
+        if (topology.slots(transition.end.capsule) <= 1) ticket
         else MoleExecution.nextTicket(subMoleState.moleExecution, ticket.parent.getOrElse(throw new InternalProcessingError("BUG should never reach root ticket")))
 
-      val toArrayManifests =
-        validTypes(mole, subMoleState.moleExecution.sources, subMoleState.moleExecution.hooks)(transition.end).filter(_.toArray).map(ct ⇒ ct.name → ct.`type`).toMap[String, ValType[_]]
-
-      val newContext = ContextAggregator.aggregate(transition.end.capsule.inputs(mole, subMoleState.moleExecution.sources, subMoleState.moleExecution.hooks), toArrayManifests, combinasion.map(ticket.content → _))
+      val newContext = ContextAggregator.aggregate(topology.inputs(transition.end.capsule), topology.toArrayManifests(transition.end), combinasion.map(ticket.content → _))
       MoleExecution.submit(subMoleState, transition.end.capsule, newContext, newTicket)
     }
   }
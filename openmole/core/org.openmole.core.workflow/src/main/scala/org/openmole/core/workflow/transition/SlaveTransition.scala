@@ -24,6 +24,7 @@ import org.openmole.core.fileservice.FileService
 import org.openmole.core.outputmanager.OutputManager
 import org.openmole.core.workflow.dsl
 import org.openmole.core.workflow.mole._
+import org.openmole.core.workflow.task.ExplorationTask
 import org.openmole.core.workflow.validation._
 import org.openmole.core.workspace.NewFile
 
@@ -39,11 +40,11 @@ class SlaveTransition(start: MoleCapsule, end: TransitionSlot, condition: Condit
       import executionContext.services._
 
       if (condition.from(context) && slaves.map(subMoleState.jobs.size < _).getOrElse(true)) {
-        val samples = ExplorationTransition.exploredSamples(this, context, moleExecution)
+        val (samples, _) = ExplorationTransition.samples(this, context, moleExecution)
 
         ExplorationTransition.submitIn(
           this,
-          filtered(context),
+          filtered(context - ExplorationTask.samples),
           ticket.parent.getOrElse(throw new UserBadDataError("Slave transition should take place within an exploration.")),
           samples,
           subMoleState,
@@ -17,9 +17,14 @@
 
 package org.openmole.core.workflow.validation
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.{ AtomicBoolean, AtomicInteger, AtomicReference }
+
 import org.openmole.core.context._
 import org.openmole.core.fileservice.FileService
 import org.openmole.core.outputmanager.OutputManager
+import org.openmole.core.preference.{ ConfigurationLocation, Preference }
+import org.openmole.core.threadprovider.ThreadProvider
 import org.openmole.core.workflow.mole._
 import org.openmole.core.workflow.task._
 import org.openmole.core.workflow.tools.{ Default, DefaultSet }
@@ -35,6 +40,61 @@ import scala.util.{ Failure, Success, Try }
 
 object Validation {
 
+  /**
+   * A validation of a part of the mole, most of them compile code
+   */
+  type Check = () ⇒ Option[Problem]
+
+  val Parallelism = ConfigurationLocation("Validation", "Parallelism", Some(math.min(Runtime.getRuntime.availableProcessors, 8)))
+
+  /**
+   * Run the checks on the pool of the thread provider, the compilations are independent (each one uses its own
+   * interpreter) so the checks of a whole mole run in parallel. At most parallelism checks run at once, the calling
+   * thread runs checks as well so that the validation completes even if the pool is busy. The calling thread waits
+   * for every check taken by a worker, the workers which have not started are cancelled. The problems are returned
+   * in the order of the checks.
+   */
+  def check(checks: Iterable[Check])(implicit threadProvider: ThreadProvider, preference: Preference): Seq[Problem] = {
+    val cs = checks.toVector
+    val parallelism = preference(Parallelism)
+
+    if (parallelism <= 1 || cs.size <= 1) cs.flatMap(_())
+    else {
+      val results = new Array[Option[Problem]](cs.size)
+      val next = new AtomicInteger(0)
+      val finished = new CountDownLatch(cs.size)
+      val error = new AtomicReference[Throwable]()
+
+      def work() =
+        Iterator.continually(next.getAndIncrement).takeWhile(_ < cs.size).foreach { i ⇒
+          try results(i) = cs(i)()
+          catch {
+            case t: Throwable ⇒ error.compareAndSet(null, t)
+          }
+          finally finished.countDown()
+        }
+
+      class Worker extends Runnable {
+        val started = new AtomicBoolean(false)
+        def run() = if (started.compareAndSet(false, true)) work()
+      }
+
+      val workers = Vector.fill(math.min(parallelism, cs.size) - 1) {
+        val worker = new Worker
+        worker → threadProvider.pool.submit(worker)
+      }
+
+      work()
+      for ((worker, future) ← workers) if (worker.started.compareAndSet(false, true)) future.cancel(false)
+
+      // every check has been taken, the ones taken by the workers may still be running
+      finished.await()
+      Option(error.get).foreach(e ⇒ throw e)
+
+      results.toSeq.flatten
+    }
+  }
+
   def allMoles(mole: Mole, in: Option[(MoleTask, MoleCapsule)] = None): List[(Mole, Option[(MoleTask, MoleCapsule)])] =
     (mole, in) ::
       mole.capsules.flatMap(
@@ -98,10 +158,12 @@ object Validation {
     }).flatten
   }
 
-  def taskValidationErrors(mole: Mole)(implicit newFile: NewFile, fileService: FileService) = {
+  def taskValidationErrors(mole: Mole)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference) = check(taskChecks(mole))
+
+  def taskChecks(mole: Mole)(implicit newFile: NewFile, fileService: FileService): Iterable[Check] = {
     def taskValidates = mole.capsules.map(_.task).collect { case v: ValidateTask ⇒ v }
 
-    taskValidates.flatMap { t ⇒
+    taskValidates.map { t ⇒ () ⇒
       t.validate.apply.toList match {
         case Nil ⇒ None
         case e   ⇒ Some(TaskValidationProblem(t, e))
@@ -109,7 +171,10 @@ object Validation {
     }
   }
 
-  def sourceErrors(mole: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService) = {
+  def sourceErrors(mole: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference) =
+    sourceInputErrors(mole, implicits, sources, hooks) ++ check(sourceChecks(mole, implicits, sources, hooks))
+
+  def sourceInputErrors(mole: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks) = {
     val implicitMap = prototypesToMap(implicits)
 
     def inputErrors =
@@ -141,23 +206,27 @@ object Validation {
         }
       }
 
-    def validationErrors =
-      for {
-        c ← mole.capsules
-        source ← sources.getOrElse(c, List.empty).collect { case s: ValidateSource ⇒ s }
-        (defaultsOverride, defaultsNonOverride) = separateDefaults(source.defaults)
-        sl ← mole.slots(c)
-        receivedInputs = TreeMap(TypeUtil.validTypes(mole, sources, hooks)(sl).map { p ⇒ p.name → p }.toSeq: _*).mapValues(_.toPrototype)
-      } yield {
-        val inputs = (defaultsNonOverride ++ implicitMap ++ receivedInputs ++ defaultsOverride).toSeq.map(_._2)
+    inputErrors.flatten
+  }
+
+  def sourceChecks(mole: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService): Iterable[Check] = {
+    val implicitMap = prototypesToMap(implicits)
+
+    for {
+      c ← mole.capsules
+      source ← sources.getOrElse(c, List.empty).collect { case s: ValidateSource ⇒ s }
+      (defaultsOverride, defaultsNonOverride) = separateDefaults(source.defaults)
+      sl ← mole.slots(c)
+      receivedInputs = TreeMap(TypeUtil.validTypes(mole, sources, hooks)(sl).map { p ⇒ p.name → p }.toSeq: _*).mapValues(_.toPrototype)
+    } yield {
+      val inputs = (defaultsNonOverride ++ implicitMap ++ receivedInputs ++ defaultsOverride).toSeq.map(_._2)
 
+      () ⇒
         source.validate(inputs).apply.toList match {
           case Nil ⇒ None
           case e   ⇒ Some(SourceValidationProblem(source, e))
         }
-      }
-
-    inputErrors.flatten ++ validationErrors.flatten
+    }
   }
 
   def typeErrorsTopMole(mole: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks) =
@@ -218,20 +287,21 @@ object Validation {
     }
   }
 
-  def transitionValidationErrors(mole: Mole, sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService) = {
-    val errors =
-      for {
-        transition ← mole.transitions.collect { case x: ValidateTransition ⇒ x }
-      } yield {
-        val inputs = TypeUtil.validTypes(mole, sources, hooks)(transition.end, _ == transition)
+  def transitionValidationErrors(mole: Mole, sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference) =
+    check(transitionChecks(mole, sources, hooks))
+
+  def transitionChecks(mole: Mole, sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService): Iterable[Check] =
+    for {
+      transition ← mole.transitions.collect { case x: ValidateTransition ⇒ x }
+    } yield {
+      val inputs = TypeUtil.validTypes(mole, sources, hooks)(transition.end, _ == transition)
+
+      () ⇒
         transition.validate(inputs.toSeq.map(_.toPrototype)).apply match {
           case ts if !ts.isEmpty ⇒ Some(TransitionValidationProblem(transition, ts))
           case _                 ⇒ None
         }
-      }
-
-    errors.flatten
-  }
+    }
 
   def incoherentTypeAggregation(mole: Mole, sources: Sources, hooks: Hooks) =
     for {
@@ -266,7 +336,10 @@ object Validation {
     moleTask.implicits.filterNot(inputs.contains).map(i ⇒ MissingMoleTaskImplicit(capsule, i))
   }
 
-  def hookErrors(m: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService): Iterable[Problem] = {
+  def hookErrors(m: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference): Iterable[Problem] =
+    hookInputErrors(m, implicits, sources, hooks) ++ check(hookChecks(m, implicits, sources, hooks))
+
+  def hookInputErrors(m: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks): Iterable[Problem] = {
     val implicitMap = prototypesToMap(implicits)
 
     def inputsErrors =
@@ -302,21 +375,26 @@ object Validation {
         }
       }
 
-    def validationErrors =
-      for {
-        c ← m.capsules
-        outputs = c.outputs(m, sources, Hooks.empty).toMap
-        h ← hooks(c).collect { case v: ValidateHook ⇒ v }
-        (defaultsOverride, defaultsNonOverride) = separateDefaults(h.defaults)
-      } yield {
-        val inputs = (defaultsNonOverride ++ implicitMap ++ outputs ++ defaultsOverride).toSeq.map(_._2)
+    inputsErrors.flatten
+  }
+
+  def hookChecks(m: Mole, implicits: Iterable[Val[_]], sources: Sources, hooks: Hooks)(implicit newFile: NewFile, fileService: FileService): Iterable[Check] = {
+    val implicitMap = prototypesToMap(implicits)
+
+    for {
+      c ← m.capsules
+      outputs = c.outputs(m, sources, Hooks.empty).toMap
+      h ← hooks(c).collect { case v: ValidateHook ⇒ v }
+      (defaultsOverride, defaultsNonOverride) = separateDefaults(h.defaults)
+    } yield {
+      val inputs = (defaultsNonOverride ++ implicitMap ++ outputs ++ defaultsOverride).toSeq.map(_._2)
+
+      () ⇒
         h.validate(inputs).apply.toList match {
           case Nil ⇒ None
           case e   ⇒ Some(HookValidationProblem(h, e))
         }
-      }
-
-    inputsErrors.flatten ++ validationErrors.flatten
+    }
   }
 
   def dataChannelErrors(mole: Mole) = {
@@ -339,35 +417,56 @@ object Validation {
     noTransitionProblems ++ negativeLevelProblem
   }
 
-  def apply(mole: Mole, implicits: Context = Context.empty, sources: Sources = Sources.empty, hooks: Hooks = Hooks.empty)(implicit newFile: NewFile, fileService: FileService): List[Problem] =
-    allMoles(mole).flatMap {
-      case (m, mt) ⇒
-        def moleTaskImplicits(moleTask: MoleTask) = {
-          val inputs = moleTaskInputMaps(moleTask)
-          moleTask.implicits.flatMap(i ⇒ inputs.get(i))
-        }
-
-        def sourceHookOrMtError =
-          mt match {
-            case Some((t, c)) ⇒
-              moleTaskImplicitsErrors(t, c) ++
-                typeErrorsMoleTask(m, moleTaskImplicits(t)).map { e ⇒ MoleTaskDataFlowProblem(c, e) } ++
-                moleTaskTopologyError(t, c)
-            case None ⇒
-              sourceErrors(m, implicits.prototypes, sources, hooks) ++
-                hookErrors(m, implicits.prototypes, sources, hooks) ++
-                typeErrorsTopMole(m, implicits.prototypes, sources, hooks)
+  /**
+   * Validate a mole and its sub-moles. The checks of all the moles, which compile the code of the tasks, transitions,
+   * sources and hooks, are collected and run together in parallel so that all the compilation errors are reported at
+   * once.
+   */
+  def apply(mole: Mole, implicits: Context = Context.empty, sources: Sources = Sources.empty, hooks: Hooks = Hooks.empty)(implicit newFile: NewFile, fileService: FileService, threadProvider: ThreadProvider, preference: Preference): List[Problem] = {
+    val moles = allMoles(mole)
+
+    val problems =
+      moles.flatMap {
+        case (m, mt) ⇒
+          def moleTaskImplicits(moleTask: MoleTask) = {
+            val inputs = moleTaskInputMaps(moleTask)
+            moleTask.implicits.flatMap(i ⇒ inputs.get(i))
           }
 
-        sourceHookOrMtError ++
-          topologyErrors(m) ++
-          duplicatedTransitions(m) ++
-          duplicatedName(m, sources, hooks) ++
-          dataChannelErrors(m) ++
-          incoherentTypeAggregation(m, sources, hooks) ++
-          incoherentTypeBetweenSlots(m, sources, hooks) ++
-          taskValidationErrors(m) ++
-          transitionValidationErrors(m, sources, hooks)
-    }
+          def sourceHookOrMtError =
+            mt match {
+              case Some((t, c)) ⇒
+                moleTaskImplicitsErrors(t, c) ++
+                  typeErrorsMoleTask(m, moleTaskImplicits(t)).map { e ⇒ MoleTaskDataFlowProblem(c, e) } ++
+                  moleTaskTopologyError(t, c)
+              case None ⇒
+                sourceInputErrors(m, implicits.prototypes, sources, hooks) ++
+                  hookInputErrors(m, implicits.prototypes, sources, hooks) ++
+                  typeErrorsTopMole(m, implicits.prototypes, sources, hooks)
+            }
+
+          sourceHookOrMtError ++
+            topologyErrors(m) ++
+            duplicatedTransitions(m) ++
+            duplicatedName(m, sources, hooks) ++
+            dataChannelErrors(m) ++
+            incoherentTypeAggregation(m, sources, hooks) ++
+            incoherentTypeBetweenSlots(m, sources, hooks)
+      }
+
+    val checks =
+      moles.flatMap {
+        case (m, mt) ⇒
+          def sourceAndHookChecks =
+            mt match {
+              case Some(_) ⇒ Seq.empty
+              case None    ⇒ sourceChecks(m, implicits.prototypes, sources, hooks) ++ hookChecks(m, implicits.prototypes, sources, hooks)
+            }
+
+          sourceAndHookChecks ++ taskChecks(m) ++ transitionChecks(m, sources, hooks)
+      }
+
+    problems ++ check(checks)
+  }
 
 }
@@ -28,9 +28,15 @@ import org.openmole.core.workflow.sampling._
 import org.openmole.core.workflow.task._
 import org.openmole.core.workflow.puzzle._
 import org.openmole.core.workflow.builder._
+import org.openmole.core.workflow.execution.LocalEnvironment
 import org.scalatest._
 import org.scalatest.junit._
 
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.{ AtomicBoolean, AtomicInteger }
+
 import scala.collection.mutable.ListBuffer
 import org.openmole.core.workflow.dsl._
 import org.openmole.core.workflow.test.TestTask
@@ -69,6 +75,37 @@ class MoleExecutionSpec extends FlatSpec with Matchers {
     ex.run
   }
 
+  "Indexed grouping" should "form the same groups as the listed grouping" in {
+    class JobGroupingBy100Test extends JobGroupingBy2Test {
+      override def apply(context: Context, groups: Iterable[(MoleJobGroup, Iterable[MoleJob])])(implicit newGroup: NewGroup, randomProvider: RandomProvider): MoleJobGroup =
+        groups.find { case (_, g) ⇒ g.size < 100 } match {
+          case Some((mg, _)) ⇒ mg
+          case None          ⇒ newGroup()
+        }
+
+      override def complete(jobs: Iterable[MoleJob]) = jobs.size >= 100
+    }
+
+    implicit val newGroup = NewGroup()
+    implicit val randomProvider = RandomProvider(new scala.util.Random(42))
+
+    val task = EmptyTask()
+
+    def groups(openGroups: OpenGroups) = {
+      val closed = ListBuffer[Vector[Long]]()
+      for (id ← 0L until 1000000L) {
+        val moleJob = MoleJob(task, Context.empty, id, (_, _) ⇒ (), () ⇒ false)
+        openGroups.add(moleJob, Context.empty, jobs ⇒ closed += jobs.map(_.id))
+      }
+      closed ++= openGroups.flush().map(_.map(_.id))
+      closed.toVector
+    }
+
+    val indexed = groups(new OpenGroups.Sequential(100))
+    indexed.size should equal(10000)
+    indexed should equal(groups(new OpenGroups.Listed(new JobGroupingBy100Test)))
+  }
+
   "Implicits" should "be used when input is missing" in {
     val i = Val[String]("i")
     val emptyT = EmptyTask() set (inputs += i)
@@ -81,4 +118,83 @@ class MoleExecutionSpec extends FlatSpec with Matchers {
     val me = emptyT.start(false)
     me.hangOn()
   }
+
+  "Journal" should "replay the completed jobs" in {
+    val i = Val[Int]
+    val j = Val[Int]
+    val executed = new AtomicInteger()
+    val aggregated = new AtomicInteger()
+
+    val model = TestTask { context ⇒
+      executed.incrementAndGet()
+      context + Variable(j, context(i) * 2)
+    } set (inputs += i, outputs += j)
+
+    val aggregate = TestTask { context ⇒
+      context(j.array).sorted.deep should equal((0 until 10).map(_ * 2).toArray.deep)
+      aggregated.incrementAndGet()
+      context
+    } set (inputs += j.array)
+
+    val journal = newFile.newDir("journal")
+    def execution = dslToPuzzle(ExplicitSampling(i, 0 until 10) -< model >- aggregate).toExecution(journal = journal)
+
+    execution.run
+    executed.get should equal(10)
+    aggregated.get should equal(1)
+
+    execution.run
+    executed.get should equal(10)
+    aggregated.get should equal(1)
+  }
+
+  "Journal" should "resume an execution killed while jobs are running" in {
+    val i = Val[Int]
+    val j = Val[Int]
+    val firstExecution = new AtomicBoolean(true)
+    val kill = new CountDownLatch(1)
+    val executed = new AtomicInteger()
+    val aggregated = new AtomicInteger()
+
+    val model = TestTask { context ⇒
+      // the second half of the jobs is running when the first execution is killed
+      if (firstExecution.get && context(i) >= 5) kill.await()
+      else executed.incrementAndGet()
+      context + Variable(j, context(i) * 2)
+    } set (inputs += i, outputs += j)
+
+    val aggregate = TestTask { context ⇒
+      context(j.array).sorted.deep should equal((0 until 10).map(_ * 2).toArray.deep)
+      aggregated.incrementAndGet()
+      context
+    } set (inputs += j.array)
+
+    def execution(journal: File) = dslToPuzzle(ExplicitSampling(i, 0 until 10) -< (model on LocalEnvironment(10)) >- aggregate).toExecution(journal = journal)
+    def records(journal: File) = Option(journal.listFiles).toSeq.flatten.filter(_.getName.endsWith(MoleJournal.Suffix))
+
+    val journal = newFile.newDir("journal")
+    val first = execution(journal).start(true)
+
+    val deadline = System.currentTimeMillis + 60000
+    while (records(journal).size < 5 && System.currentTimeMillis < deadline) Thread.sleep(10)
+    records(journal).size should equal(5)
+
+    // the state of the disk when the JVM is killed: the completed records and a record being written
+    val killedJournal = newFile.newDir("killed")
+    killedJournal.mkdirs()
+    for (r ← records(journal)) Files.copy(r.toPath, new File(killedJournal, r.getName).toPath)
+    Files.write(new File(killedJournal, s"${records(journal).head.getName.takeWhile(_ != '-')}-partial.tmp").toPath, Array[Byte](1, 2, 3))
+
+    first.cancel
+    firstExecution.set(false)
+    kill.countDown()
+    first.hangOn()
+
+    executed.get should equal(5)
+    aggregated.get should equal(0)
+
+    execution(killedJournal).run
+    executed.get should equal(10)
+    aggregated.get should equal(1)
+  }
 }
@@ -21,6 +21,7 @@ import java.util.concurrent.atomic.AtomicInteger
 
 import org.openmole.core.context.Val
 import org.openmole.core.exception.InternalProcessingError
+import org.openmole.core.expansion.{ Condition, FromContext }
 import org.openmole.core.workflow.execution.LocalEnvironment
 import org.openmole.core.workflow.mole._
 import org.openmole.core.workflow.task._
@@ -28,7 +29,7 @@ import org.scalatest._
 import org.openmole.core.workflow.dsl._
 import org.openmole.core.workflow.sampling.ExplicitSampling
 import org.openmole.core.workflow.test.TestTask
-import org.openmole.core.workflow.transition.TransitionSlot
+import org.openmole.core.workflow.transition.{ AggregationTransition, ExplorationTransition, TransitionSlot }
 import org.openmole.core.workflow.validation.Validation
 
 import scala.util.Try
@@ -83,6 +84,27 @@ class AggregationTransitionSpec extends FlatSpec with Matchers {
     endCapsExecuted should equal(1)
   }
 
+  "Aggregation transition" should "aggregate the results of a streamed exploration" in {
+    @volatile var endCapsExecuted = 0
+
+    val data = 0 until 3000
+    val i = Val[Int]
+
+    val emptyT = EmptyTask() set ((inputs, outputs) += i)
+
+    val testT =
+      TestTask { context ⇒
+        context(i.toArray).sorted.deep should equal(data.toArray.deep)
+        endCapsExecuted += 1
+        context
+      } set (inputs += i.array)
+
+    val ex = ExplorationTask(ExplicitSampling(i, data), stream = true) -< emptyT >- testT
+
+    ex.run
+    endCapsExecuted should equal(1)
+  }
+
   "Aggregation transition" should "support cancel and start of a new execution" in {
     val endCapsExecuted = new AtomicInteger()
 
@@ -129,6 +151,41 @@ class AggregationTransitionSpec extends FlatSpec with Matchers {
     endCapsExecuted.get() should equal(0)
   }
 
+  "Aggregation transition" should "be triggered during a large exploration" in {
+    val endCapsExecuted = new AtomicInteger()
+
+    val data = 0 until 100000
+    val i = Val[Int]
+
+    val emptyT = EmptyTask() set ((inputs, outputs) += i)
+
+    val testT =
+      TestTask { context ⇒
+        context(i.toArray).size should be >= 1000
+        context(i.toArray).sorted.deep should equal(context(i.toArray).deep)
+        endCapsExecuted.incrementAndGet()
+        context
+      } set (inputs += i.array)
+
+    val explorationC = MoleCapsule(ExplorationTask(ExplicitSampling(i, data)))
+    val emptyC = MoleCapsule(emptyT)
+    val testC = MoleCapsule(testT)
+
+    val trigger: Condition = FromContext { p ⇒ p.context(i.toArray).size >= 1000 }
+
+    val mole =
+      Mole(
+        explorationC,
+        Seq(
+          new ExplorationTransition(explorationC, TransitionSlot(emptyC)),
+          new AggregationTransition(emptyC, TransitionSlot(testC), trigger = trigger)
+        )
+      )
+
+    MoleExecution(mole).run
+    endCapsExecuted.get() should equal(1)
+  }
+
   "Multiple aggregation transition" should "all be executed" in {
     val v = Val[Double]("v")
     val m = Val[Double]("m")
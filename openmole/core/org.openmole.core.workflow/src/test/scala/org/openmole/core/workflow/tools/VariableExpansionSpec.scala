@@ -17,7 +17,8 @@
 
 package org.openmole.core.workflow.tools
 
-import org.openmole.core.context.Context
+import org.openmole.core.context.{ Context, Val, Variable }
+import org.openmole.core.exception.UserBadDataError
 import org.openmole.core.expansion.ExpandedString
 import org.scalatest._
 import org.openmole.core.workflow.dsl._
@@ -54,4 +55,36 @@ class VariableExpansionSpec extends FlatSpec with Matchers {
     test should equal(res)
   }
 
+  "Expansion" should "preserve the $ which are not followed by a {" in {
+    ExpandedString("$$").from(Context.empty) should equal("$$")
+    ExpandedString("a$$b").from(Context.empty) should equal("a$$b")
+    ExpandedString("test$").from(Context.empty) should equal("test$")
+    ExpandedString("$").from(Context.empty) should equal("$")
+  }
+
+  "Expansion" should "expand the constants without compiling them" in {
+    ExpandedString("${1}").from(Context.empty) should equal("1")
+    ExpandedString("a${1}b${true}").from(Context.empty) should equal("a1btrue")
+    ExpandedString.parse("a${1}b") should equal(Vector(ExpandedString.UnexpandedElement("a1b")))
+  }
+
+  "Expansion" should "look up the variables in the context" in {
+    val x = Val[Int]("x")
+    ExpandedString("${x}").from(Context(Variable(x, 3))) should equal("3")
+    ExpandedString("x=${x}.").from(Context(Variable(x, 4))) should equal("x=4.")
+  }
+
+  "Expansion" should "fail for a variable which is not in the context" in {
+    an[Throwable] should be thrownBy ExpandedString("${x}").from(Context.empty)
+  }
+
+  "Expansion" should "expand the code with nested braces" in {
+    ExpandedString("${if (true) { 2 } else { 3 }}").from(Context.empty) should equal("2")
+    ExpandedString("a${Seq(1, 2).map { i => i * 2 }.sum}b").from(Context.empty) should equal("a6b")
+  }
+
+  "Expansion" should "fail on an unmatched {" in {
+    an[UserBadDataError] should be thrownBy ExpandedString.parse("${x")
+  }
+
 }
\ No newline at end of file
@@ -398,7 +398,7 @@ class ApiImpl(s: Services, applicationControl: ApplicationControl) extends Api {
   def processRun(ex: MoleExecution, execId: ExecutionId, validateScript: Boolean) = {
     val envIds = (ex.allEnvironments).map { env ⇒ EnvironmentId(getUUID) → env }
     execution.addRunning(execId, envIds)
-    envIds.foreach { case (envId, env) ⇒ env.listen(execution.environmentListener(envId)) }
+    envIds.foreach { case (envId, env) ⇒ env.listenAsync()(execution.environmentListener(envId)) }
 
     catchAll(ex.start(validateScript)) match {
       case Failure(e) ⇒ execution.addError(execId, Failed(Vector.empty, ErrorData(e), Seq.empty))
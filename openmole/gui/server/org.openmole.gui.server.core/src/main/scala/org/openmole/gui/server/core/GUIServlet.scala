@@ -89,7 +89,7 @@ object GUIServices {
     implicit val authenticationStore = AuthenticationStore(ws.persistentDir)
     implicit val fileService = FileService()
     implicit val randomProvider = RandomProvider(seeder.newRNG)
-    implicit val eventDispatcher = EventDispatcher()
+    implicit val eventDispatcher = EventDispatcher(threadProvider.threadFactory)
     implicit val outputRedirection = OutputRedirection()
     implicit val networkService = NetworkService(httpProxy)
     implicit val fileServiceCache = FileServiceCache()
@@ -17,7 +17,7 @@
 
 package org.openmole.plugin.environment.batch.environment
 
-import java.io.File
+import java.io.{ File, IOException, InputStream, OutputStream }
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.{CountDownLatch, Semaphore}
 
@@ -42,8 +42,11 @@ import org.openmole.plugin.environment.batch.refresh._
 import org.openmole.tool.cache._
 import org.openmole.tool.collection.RingBuffer
 import org.openmole.tool.file._
+import org.openmole.tool.hash.{ Hash, SHA1, messageDigest }
 import org.openmole.tool.logger.{JavaLogger, LoggerService}
 import org.openmole.tool.random.{RandomProvider, Seeder, shuffled}
+import org.openmole.tool.stream.{ CompressionCodec, ProducerInputStream }
+import org.openmole.tool.tar._
 import squants.information.Information
 import squants.information.InformationConversions._
 import squants.time.TimeConversions._
@@ -71,19 +74,51 @@ object BatchEnvironment {
 
   def signalUpload(id: Long, upload: ⇒ String, file: File, environment: BatchEnvironment, storageId: String)(implicit eventDispatcher: EventDispatcher): String = {
     val size = file.size
+    signalUpload(id, upload, file, environment, storageId, () ⇒ size)
+  }
+
+  /**
+   * Upload a stream produced while it is uploaded, the size of the upload is the number of bytes read from the stream.
+   *
+   * @param file the file described by the upload events
+   */
+  def signalUploadStream(id: Long, upload: (() ⇒ InputStream) ⇒ String, produce: OutputStream ⇒ Unit, file: File, environment: BatchEnvironment, storageId: String)(implicit eventDispatcher: EventDispatcher, threadProvider: ThreadProvider, preference: Preference): String = {
+    @volatile var stream: Option[ProducerInputStream] = None
+
+    def open() = {
+      val s = new ProducerInputStream(produce, threadProvider.threadFactory, stallTimeout = preference(BatchEnvironment.UploadStreamStallTimeout))
+      stream = Some(s)
+      s
+    }
+
+    signalUpload(id, upload(open), file, environment, storageId, () ⇒ stream.map(_.bytesRead).getOrElse(0L))
+  }
+
+  private def signalUpload(id: Long, upload: ⇒ String, file: File, environment: BatchEnvironment, storageId: String, size: () ⇒ Long)(implicit eventDispatcher: EventDispatcher): String = {
     eventDispatcher.trigger(environment, BeginUpload(id, file, storageId))
     val path =
       try upload
       catch {
         case e: Throwable ⇒
-          eventDispatcher.trigger(environment, EndUpload(id, file, storageId, util.Failure(e), size))
+          eventDispatcher.trigger(environment, EndUpload(id, file, storageId, util.Failure(e), size()))
           throw e
       }
 
-    eventDispatcher.trigger(environment, EndUpload(id, file, storageId, util.Success(path), size))
+    eventDispatcher.trigger(environment, EndUpload(id, file, storageId, util.Success(path), size()))
     path
   }
 
+  /**
+   * Write the archive of a directory, the archive is checked against the hash of the directory as it is written so
+   * that a directory modified since it has been hashed is not uploaded.
+   */
+  def archiveDirectory(directory: File, hash: String)(os: OutputStream) = {
+    val tos = new DigestTarOutputStream(os, messageDigest(SHA1))
+    try tos.archive(directory, time = false)
+    finally tos.close()
+    if (Hash(tos.getDigest).toString != hash) throw new IOException(s"Directory $directory has been modified while it was uploaded")
+  }
+
   def signalDownload[T](id: Long, download: ⇒ T, path: String, environment: BatchEnvironment, storageId: String, file: File)(implicit eventDispatcher: EventDispatcher): T = {
     eventDispatcher.trigger(environment, BeginDownload(id, file, path, storageId))
     val res =
@@ -116,6 +151,8 @@ object BatchEnvironment {
 
   val QualityHysteresis = ConfigurationLocation("BatchEnvironment", "QualityHysteresis", Some(100))
 
+  val UploadStreamStallTimeout = ConfigurationLocation("BatchEnvironment", "UploadStreamStallTimeout", Some(10 minutes))
+
   private def runtimeDirLocation = openMOLELocation / "runtime"
 
   lazy val runtimeLocation = runtimeDirLocation / "runtime.tar.gz"
@@ -237,6 +274,7 @@ object BatchEnvironment {
 
   def toReplicatedFile(
     upload: (File, TransferOptions) => String,
+    uploadStream: (() ⇒ InputStream, TransferOptions) => String,
     exist: String => Boolean,
     remove: String => Unit,
     environment: BatchEnvironment,
@@ -248,16 +286,24 @@ object BatchEnvironment {
     val isDir = file.isDirectory
     val toReplicatePath = file.getCanonicalFile
 
-    val (toReplicate, options) =
-      if (isDir) (services.fileService.archiveForDir(file).file, transferOptions.copy(noLink = true))
-      else (file, transferOptions)
+    def uploadFile(f: File, options: TransferOptions) = signalUpload(eventDispatcher.eventId, upload(f, options), f, environment, storageId)
+
+    // without persistent archives, directories are archived while they are uploaded
+    val (hash, uploadReplica) =
+      if (!isDir) (services.fileService.hash(file).toString, () ⇒ uploadFile(file, transferOptions))
+      else services.fileService.persistentArchives match {
+        case Some(_) ⇒
+          val archive = services.fileService.archiveForDir(file)
+          (archive.hash.get.toString, () ⇒ uploadFile(archive.file, transferOptions.copy(noLink = true)))
+        case None ⇒
+          val hash = services.fileService.hash(file).toString
+          def uploadArchive = signalUploadStream(eventDispatcher.eventId, uploadStream(_, transferOptions.copy(noLink = true)), archiveDirectory(file, hash), file, environment, storageId)
+          (hash, () ⇒ uploadArchive)
+      }
 
     val fileMode = file.mode
-    val hash = services.fileService.hash(toReplicate).toString
-
-    def uploadReplica = signalUpload(eventDispatcher.eventId, upload(toReplicate, options), toReplicate, environment, storageId)
 
-    val replica = services.replicaCatalog.uploadAndGet(uploadReplica, exist, remove, toReplicatePath, hash, storageId)
+    val replica = services.replicaCatalog.uploadAndGet(uploadReplica(), exist, remove, toReplicatePath, hash, storageId)
     ReplicatedFile(file.getPath, file.getName, isDir, hash, replica.path, fileMode)
   }
   
@@ -265,7 +311,7 @@ object BatchEnvironment {
     job: BatchExecutionJob,
     remoteStorage: RemoteStorage,
     replicate: (File, TransferOptions) => ReplicatedFile,
-    upload: (File, TransferOptions) => String,
+    uploadStream: (() ⇒ InputStream, TransferOptions) => String,
     storageId: String)(implicit services: BatchEnvironment.Services): SerializedJob = services.newFile.withTmpFile("job", ".tar") { jobFile ⇒
 
     import services._
@@ -285,23 +331,27 @@ object BatchEnvironment {
       job.environment
     )
 
-    /* ---- upload the execution message ----*/
+    /* ---- upload the execution message, the archives are written while they are uploaded ----*/
+    def archive(obj: Any, tos: TarOutputStream) =
+      try serializerService.serializeAndArchiveFiles(obj, tos)
+      finally tos.close()
+
     val inputPath =
-      newFile.withTmpFile("job", ".tar") { executionMessageFile ⇒
-        serializerService.serializeAndArchiveFiles(executionMessage, executionMessageFile)
-        signalUpload(eventDispatcher.eventId, upload(executionMessageFile, TransferOptions(noLink = true, canMove = true)), executionMessageFile, job.environment, storageId)
-      }
+      signalUploadStream(eventDispatcher.eventId, uploadStream(_, TransferOptions(noLink = true)), os ⇒ archive(executionMessage, new TarOutputStream(os)), jobFile, job.environment, storageId)
 
-    val serializedStorage =
-      services.newFile.withTmpFile("remoteStorage", ".tar") { storageFile ⇒
-        import org.openmole.tool.hash._
-        import services._
-        services.serializerService.serializeAndArchiveFiles(remoteStorage, storageFile)
-        val hash = storageFile.hash().toString()
-        val path = signalUpload(eventDispatcher.eventId, upload(storageFile, TransferOptions(noLink = true, canMove = true, raw = true)), storageFile, job.environment, storageId)
-        FileMessage(path, hash)
+    val serializedStorage = {
+      @volatile var storageHash: Option[Hash] = None
+
+      def archiveStorage(os: OutputStream) = {
+        val tos = new DigestTarOutputStream(os, messageDigest(SHA1))
+        archive(remoteStorage, tos)
+        storageHash = Some(Hash(tos.getDigest))
       }
 
+      val path = signalUploadStream(eventDispatcher.eventId, uploadStream(_, TransferOptions(noLink = true, raw = true)), archiveStorage, jobFile, job.environment, storageId)
+      FileMessage(path, storageHash.get.toString)
+    }
+
     SerializedJob(inputPath, runtime, serializedStorage)
   }
 
@@ -410,7 +460,10 @@ abstract class BatchEnvironment extends SubmissionEnvironment { env ⇒
   lazy val relpClassesCache = new AssociativeCache[Set[String], (Seq[File], Seq[FileCache])]
 
   lazy val plugins = PluginManager.pluginsForClass(this.getClass)
-  lazy val jobStore = JobStore(services.newFile.makeNewDir("jobstore"))
+  lazy val jobStore = JobStore(services.newFile.makeNewDir("jobstore"), compressionCodec)
+
+  /** Codec for the compressed files stored and transferred by this environment, the environments may let it be chosen */
+  def compressionCodec: CompressionCodec = CompressionCodec.GZip
 
 
   override def submit(job: Job) = JobManager ! Manage(job, this)
@@ -10,6 +10,7 @@ import org.openmole.core.workflow.mole.MoleExecution
 import org.openmole.core.workflow.task.Task
 import org.openmole.core.workspace._
 import org.openmole.tool.file._
+import org.openmole.tool.stream._
 
 object JobStore {
 
@@ -19,8 +20,8 @@ object JobStore {
   }
 
   def store(jobStore: JobStore, moleJob: MoleJob)(implicit serializer: SerializerService): StoredMoleJob = {
-    val f = NewFile(jobStore.store).newFile("storedjob", ".bin.gz")
-    f.withGzippedOutputStream { os ⇒ serializer.serialize(moleJob.context, os) }
+    val f = NewFile(jobStore.store).newFile("storedjob", ".bin" + jobStore.codec.extension)
+    withClosable(f.bufferedOutputStream().compress(jobStore.codec)) { os ⇒ serializer.serialize(moleJob.context, os) }
     new StoredMoleJob(
       f,
       moleJob.task,
@@ -35,7 +36,7 @@ object JobStore {
   }
 
   def load(storedMoleJob: StoredMoleJob)(implicit serializerService: SerializerService): MoleJob = {
-    val context = storedMoleJob.context.withGzippedInputStream { is ⇒ serializerService.deserialize[Context](is) }
+    val context = withClosable(storedMoleJob.context.bufferedInputStream.uncompressed) { is ⇒ serializerService.deserialize[Context](is) }
     MoleJob(
       task = storedMoleJob.task,
       context = context,
@@ -61,4 +62,4 @@ object JobStore {
 
 }
 
-case class JobStore(store: File)
+case class JobStore(store: File, codec: CompressionCodec = CompressionCodec.GZip)
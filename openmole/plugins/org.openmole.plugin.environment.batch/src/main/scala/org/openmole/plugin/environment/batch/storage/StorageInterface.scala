@@ -34,20 +34,22 @@ object StorageInterface {
       override def download(src: String, dest: File, options: TransferOptions)(implicit newFile: NewFile): Unit = StorageService.download(s, src, dest, options)
     }
 
-  def upload(compressed: Boolean, uploadStream: (() ⇒ InputStream, String) ⇒ Unit)(src: File, dest: String, options: TransferOptions = TransferOptions.default): Unit = {
-    def fileStream() = src.bufferedInputStream
+  def upload(compression: Option[CompressionCodec], uploadStream: (() ⇒ InputStream, String) ⇒ Unit)(src: File, dest: String, options: TransferOptions = TransferOptions.default): Unit =
+    StorageInterface.uploadStream(compression, uploadStream)(() ⇒ src.bufferedInputStream, dest, options)
 
-    if (compressed) {
-      def compressedFileStream() = src.bufferedInputStream.toGZiped
-      if (!options.raw) uploadStream(compressedFileStream, dest) else uploadStream(fileStream, dest)
+  def uploadStream(compression: Option[CompressionCodec], uploadStream: (() ⇒ InputStream, String) ⇒ Unit)(src: () ⇒ InputStream, dest: String, options: TransferOptions): Unit =
+    compression match {
+      case Some(codec) ⇒
+        def compressedStream() = src().compressed(codec)
+        if (!options.raw) uploadStream(compressedStream, dest) else uploadStream(src, dest)
+      case None ⇒ uploadStream(src, dest)
     }
-    else uploadStream(fileStream, dest)
-  }
 
+  // the compression codec of downloaded files is detected from their magic bytes
   def download(compressed: Boolean, downloadStream: (String, InputStream ⇒ Unit) ⇒ Unit)(src: String, dest: File, options: TransferOptions = TransferOptions.default): Unit = {
     def downloadFile(is: InputStream) = Files.copy(is, dest.toPath)
     if (compressed) {
-      def uncompressed(is: InputStream) = downloadFile(is.toGZ)
+      def uncompressed(is: InputStream) = downloadFile(is.uncompressed)
       if (!options.raw) downloadStream(src, uncompressed) else downloadStream(src, downloadFile)
     }
     else downloadStream(src, downloadFile)
@@ -61,6 +63,8 @@ trait StorageInterface[T] {
   def exists(t: T, path: String): Boolean
   def rmFile(t: T, path: String): Unit
   def upload(t: T, src: File, dest: String, options: TransferOptions = TransferOptions.default): Unit
+  /** Upload the content of a stream, it may be produced while it is uploaded */
+  def uploadStream(t: T, src: () ⇒ InputStream, dest: String, options: TransferOptions): Unit
   def download(t: T, src: String, dest: File, options: TransferOptions = TransferOptions.default): Unit
 }
 
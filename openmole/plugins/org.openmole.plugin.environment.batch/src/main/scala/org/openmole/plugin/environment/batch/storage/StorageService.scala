@@ -59,11 +59,20 @@ object StorageService extends JavaLogger {
   def exists[S](s: S, path: String)(implicit storageInterface: StorageInterface[S]) =
     storageInterface.exists(s, path)
 
+  def uploadStream[S](s: S, src: () ⇒ InputStream, dest: String, options: TransferOptions)(implicit storageInterface: StorageInterface[S]) =
+    storageInterface.uploadStream(s, src, dest, options)
+
   def uploadInDirectory[S: StorageInterface: HierarchicalStorageInterface](s: S, file: File, directory: String, transferOptions: TransferOptions) = {
     val path = child(s, directory, StorageSpace.timedUniqName)
     upload(s, file, path, transferOptions)
     path
   }
 
+  def uploadStreamInDirectory[S: StorageInterface: HierarchicalStorageInterface](s: S, src: () ⇒ InputStream, directory: String, transferOptions: TransferOptions) = {
+    val path = child(s, directory, StorageSpace.timedUniqName)
+    uploadStream(s, src, path, transferOptions)
+    path
+  }
+
 }
 
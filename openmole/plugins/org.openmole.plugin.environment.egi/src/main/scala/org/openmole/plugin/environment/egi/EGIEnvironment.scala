@@ -17,6 +17,8 @@
 
 package org.openmole.plugin.environment.egi
 
+import java.io.InputStream
+
 import gridscale.egi._
 import org.openmole.core.communication.storage.TransferOptions
 import org.openmole.core.exception.{ InternalProcessingError, MultipleException }
@@ -31,6 +33,7 @@ import org.openmole.tool.cache._
 import org.openmole.tool.crypto.Cypher
 import org.openmole.tool.exception._
 import org.openmole.tool.logger.JavaLogger
+import org.openmole.tool.stream.CompressionCodec
 import squants.information._
 import squants.time.Time
 import squants.time.TimeConversions._
@@ -155,15 +158,16 @@ object EGIEnvironment extends JavaLogger {
 
   def apply(
     voName:         String,
-    service:        OptionalArgument[String]      = None,
-    group:          OptionalArgument[String]      = None,
-    bdii:           OptionalArgument[String]      = None,
-    vomsURLs:       OptionalArgument[Seq[String]] = None,
-    fqan:           OptionalArgument[String]      = None,
-    cpuTime:        OptionalArgument[Time]        = None,
-    openMOLEMemory: OptionalArgument[Information] = None,
-    debug:          Boolean                       = false,
-    name:           OptionalArgument[String]      = None
+    service:        OptionalArgument[String]           = None,
+    group:          OptionalArgument[String]           = None,
+    bdii:           OptionalArgument[String]           = None,
+    vomsURLs:       OptionalArgument[Seq[String]]      = None,
+    fqan:           OptionalArgument[String]           = None,
+    cpuTime:        OptionalArgument[Time]             = None,
+    openMOLEMemory: OptionalArgument[Information]      = None,
+    debug:          Boolean                            = false,
+    name:           OptionalArgument[String]           = None,
+    compression:    OptionalArgument[CompressionCodec] = None
   )(implicit authentication: EGIAuthentication, services: BatchEnvironment.Services, cypher: Cypher, workspace: Workspace, varName: sourcecode.Name) = {
 
     EnvironmentProvider { ms ⇒
@@ -179,7 +183,8 @@ object EGIEnvironment extends JavaLogger {
         debug = debug,
         name = name,
         authentication = authentication,
-        services = services.set(ms)
+        services = services.set(ms),
+        compression = compression
       )
     }
   }
@@ -198,7 +203,8 @@ class EGIEnvironment[A: EGIAuthenticationInterface](
   val debug:             Boolean,
   val name:              Option[String],
   val authentication:    A,
-  implicit val services: BatchEnvironment.Services
+  implicit val services: BatchEnvironment.Services,
+  val compression:       Option[CompressionCodec]  = None
 )(implicit workspace: Workspace) extends BatchEnvironment { env ⇒
 
   import services._
@@ -216,6 +222,8 @@ class EGIEnvironment[A: EGIAuthenticationInterface](
     (token, preference(EGIEnvironment.TokenRenewalTime))
   }
 
+  override def compressionCodec = compression.getOrElse(CompressionCodec.GZip)
+
   override def start() = {
     proxyCache()
     if (storages.map(_.toOption).flatten.isEmpty) throw new InternalProcessingError(s"No webdav storage is working for the VO $voName", MultipleException(storages.collect { case util.Failure(e) ⇒ e }))
@@ -261,7 +269,9 @@ class EGIEnvironment[A: EGIAuthenticationInterface](
 
         case class FileInfo(size: Long, hash: String)
 
-        def fileSize(file: File) = (if (file.isDirectory) fileService.archiveForDir(file).file else file).size
+        // directories are not archived just to be sized when their archives are streamed
+        def fileSize(file: File) =
+          (if (file.isDirectory && fileService.persistentArchives.isDefined) fileService.archiveForDir(file).file else file).size
 
         val usedFiles = BatchEnvironment.jobFiles(batchExecutionJob)
         val usedFilesInfo = usedFiles.map { f ⇒ f → FileInfo(fileSize(f), fileService.hash(f).toString) }.toMap
@@ -326,15 +336,16 @@ class EGIEnvironment[A: EGIAuthenticationInterface](
       def replicate(f: File, options: TransferOptions) =
         BatchEnvironment.toReplicatedFile(
           StorageService.uploadInDirectory(storage, _, space.replicaDirectory, _),
+          StorageService.uploadStreamInDirectory(storage, _, space.replicaDirectory, _),
           StorageService.exists(storage, _),
           StorageService.rmFile(storage, _, background = true),
           batchExecutionJob.environment,
           StorageService.id(storage)
         )(f, options)
 
-      def upload(f: File, options: TransferOptions) = StorageService.uploadInDirectory(storage, f, jobDirectory, options)
+      def uploadStream(s: () ⇒ InputStream, options: TransferOptions) = StorageService.uploadStreamInDirectory(storage, s, jobDirectory, options)
 
-      val sj = BatchEnvironment.serializeJob(batchExecutionJob, remoteStorage, replicate, upload, StorageService.id(storage))
+      val sj = BatchEnvironment.serializeJob(batchExecutionJob, remoteStorage, replicate, uploadStream, StorageService.id(storage))
       val outputPath = StorageService.child(storage, jobDirectory, uniqName("job", ".out"))
       val job = jobService.submit(sj, outputPath, storage.url)
 
@@ -136,7 +136,7 @@ import org.openmole.tool.file._
 //    }
 //}
 
-import java.io.File
+import java.io.{ File, InputStream }
 import java.net.URI
 
 import org.openmole.core.communication.storage
@@ -237,11 +237,17 @@ object WebDavStorage {
 
     override def upload(t: WebDavStorage, src: File, dest: String, options: storage.TransferOptions): Unit = t.accessControl {
       t.qualityControl {
-        StorageInterface.upload(true, gridscale.webdav.writeStream(webdavServer(t), _, _))(src, dest, options)
+        StorageInterface.upload(Some(t.environment.compressionCodec), gridscale.webdav.writeStream(webdavServer(t), _, _))(src, dest, options)
         //if (!exists(t, dest)) throw new InternalProcessingError(s"File $src has been successfully uploaded to $dest on $t but does not exist.")
       }
     }
 
+    override def uploadStream(t: WebDavStorage, src: () ⇒ InputStream, dest: String, options: storage.TransferOptions): Unit = t.accessControl {
+      t.qualityControl {
+        StorageInterface.uploadStream(Some(t.environment.compressionCodec), gridscale.webdav.writeStream(webdavServer(t), _, _))(src, dest, options)
+      }
+    }
+
     override def download(t: WebDavStorage, src: String, dest: File, options: storage.TransferOptions): Unit = t.accessControl {
       t.qualityControl {
         StorageInterface.download(true, gridscale.webdav.readStream[Unit](webdavServer(t), _, _))(src, dest, options)
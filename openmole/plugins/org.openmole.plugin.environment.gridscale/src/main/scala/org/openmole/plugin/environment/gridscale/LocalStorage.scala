@@ -43,7 +43,11 @@ object LocalStorage {
     override def rmFile(t: LocalStorage, path: String): Unit = t.accessControl { local.rmFile(path) }
 
     override def upload(t: LocalStorage, src: File, dest: String, options: TransferOptions): Unit = t.accessControl {
-      StorageInterface.upload(false, local.writeFile(_, _))(src, dest, options)
+      StorageInterface.upload(None, local.writeFile(_, _))(src, dest, options)
+    }
+
+    override def uploadStream(t: LocalStorage, src: () ⇒ InputStream, dest: String, options: TransferOptions): Unit = t.accessControl {
+      StorageInterface.uploadStream(None, local.writeFile(_, _))(src, dest, options)
     }
 
     override def download(t: LocalStorage, src: String, dest: File, options: TransferOptions): Unit = t.accessControl {
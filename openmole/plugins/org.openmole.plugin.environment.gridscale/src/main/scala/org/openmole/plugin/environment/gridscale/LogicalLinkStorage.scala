@@ -38,7 +38,7 @@ object LogicalLinkStorage {
   def rmFile(t: LogicalLinkStorage, path: String): Unit = local.rmFile(path)
 
   def upload(t: LogicalLinkStorage, src: File, dest: String, options: TransferOptions): Unit = {
-    def copy = StorageInterface.upload(false, local.writeFile(_, _))(src, dest, options)
+    def copy = StorageInterface.upload(None, local.writeFile(_, _))(src, dest, options)
 
     if (options.canMove) local.mv(src.getPath, dest)
     else if (options.noLink || t.forceCopy) copy
@@ -16,6 +16,7 @@
  */
 package org.openmole.plugin.environment
 
+import java.io.InputStream
 import java.net.URI
 
 import effectaside._
@@ -58,7 +59,11 @@ package object ssh {
       override def rmFile(t: SSHStorage, path: String): Unit = t.accessControl { gssh.rmFile(t, path) }
 
       override def upload(t: SSHStorage, src: File, dest: String, options: TransferOptions): Unit =t.accessControl {
-        StorageInterface.upload(false, gssh.writeFile(t, _, _))(src, dest, options)
+        StorageInterface.upload(None, gssh.writeFile(t, _, _))(src, dest, options)
+      }
+
+      override def uploadStream(t: SSHStorage, src: () ⇒ InputStream, dest: String, options: TransferOptions): Unit =t.accessControl {
+        StorageInterface.uploadStream(None, gssh.writeFile(t, _, _))(src, dest, options)
       }
 
       override def download(t: SSHStorage, src: String, dest: File, options: TransferOptions): Unit =t.accessControl {
@@ -178,15 +183,16 @@ package object ssh {
       def replicate(f: File, options: TransferOptions) =
         BatchEnvironment.toReplicatedFile(
           StorageService.uploadInDirectory(storage, _, space.replicaDirectory, _),
+          StorageService.uploadStreamInDirectory(storage, _, space.replicaDirectory, _),
           StorageService.exists(storage, _),
           StorageService.rmFile(storage, _, background = true),
           batchExecutionJob.environment,
           StorageService.id(storage)
         )(f, options)
 
-      def upload(f: File, options: TransferOptions) = StorageService.uploadInDirectory(storage, f, jobDirectory, options)
+      def uploadStream(s: () ⇒ InputStream, options: TransferOptions) = StorageService.uploadStreamInDirectory(storage, s, jobDirectory, options)
 
-      val sj = BatchEnvironment.serializeJob(batchExecutionJob, remoteStorage, replicate, upload, StorageService.id(storage))
+      val sj = BatchEnvironment.serializeJob(batchExecutionJob, remoteStorage, replicate, uploadStream, StorageService.id(storage))
       val outputPath = StorageService.child(storage, jobDirectory, uniqName("job", ".out"))
 
       val job = submit(sj, outputPath, jobDirectory)
@@ -43,4 +43,6 @@ class ByGrouping(numberOfMoleJobs: Int) extends Grouping {
   }
 
   override def complete(jobs: Iterable[MoleJob]) = jobs.size >= numberOfMoleJobs
+
+  override def openGroups = new OpenGroups.Sequential(numberOfMoleJobs)
 }
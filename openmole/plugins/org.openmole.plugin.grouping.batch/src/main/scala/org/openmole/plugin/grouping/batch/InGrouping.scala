@@ -38,4 +38,6 @@ class InGrouping(numberOfBatch: Int) extends Grouping {
     else groups.minBy { case (_, g) ⇒ g.size }._1
   }
 
+  override def openGroups = new OpenGroups.RoundRobin(numberOfBatch)
+
 }
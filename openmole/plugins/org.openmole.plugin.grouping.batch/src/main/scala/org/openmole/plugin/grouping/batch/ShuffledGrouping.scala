@@ -40,4 +40,6 @@ class ShuffledGrouping(numberOfBatch: Int) extends Grouping {
   override def apply(context: Context, groups: Iterable[(MoleJobGroup, Iterable[MoleJob])])(implicit newGroup: NewGroup, randomProvider: RandomProvider): MoleJobGroup =
     new MoleJobGroup(randomProvider().nextInt(numberOfBatch))
 
+  override def openGroups = new OpenGroups.Keyed((context, newGroup, randomProvider) ⇒ apply(context, Iterable.empty)(newGroup, randomProvider), _ ⇒ false)
+
 }
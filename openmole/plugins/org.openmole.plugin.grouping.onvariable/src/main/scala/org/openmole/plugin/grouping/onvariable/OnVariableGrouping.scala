@@ -36,4 +36,6 @@ class OnVariableGrouping(numberOfMoleJobs: Option[Int], prototypes: Val[_]*) ext
 
   override def complete(jobs: Iterable[MoleJob]) =
     numberOfMoleJobs map { jobs.size >= _ } getOrElse (false)
+
+  override def openGroups = new OpenGroups.Keyed((context, newGroup, randomProvider) ⇒ apply(context, Iterable.empty)(newGroup, randomProvider), size ⇒ numberOfMoleJobs.exists(size >= _))
 }
\ No newline at end of file
@@ -23,16 +23,21 @@ import monocle.Lens
 import monocle.macros.Lenses
 import org.openmole.core.context.{ Context, Val, Variable }
 import org.openmole.core.expansion.FromContext
+import org.openmole.core.preference.ConfigurationLocation
 import org.openmole.core.workflow.builder._
 import org.openmole.core.workflow.dsl._
 import org.openmole.core.workflow.mole.{ MoleExecutionContext, _ }
 import org.openmole.core.workflow.validation._
 import org.openmole.plugin.hook.file.CopyFileHook._
 import org.openmole.tool.random._
+import org.openmole.tool.stream.CompressionCodec
 import org.openmole.tool.tar._
 
 object CopyFileHook {
 
+  /** Number of threads of the thread provider pool compressing the copies of the files and directories, 1 disables the parallel gzip writer */
+  val CompressionThreads = ConfigurationLocation("CopyFileHook", "CompressionThreads", Some(1))
+
   case class CopyOptions(remove: Boolean, compress: Boolean, move: Boolean)
 
   trait CopyFileHookBuilder[T] {
@@ -94,7 +99,8 @@ object CopyFileHook {
           Some(Variable(filePrototype, to))
         }
         else if (options.compress) {
-          from.copyCompress(to)
+          val parallelism = CompressionCodec.Parallelism(executionContext.threadProvider.pool, executionContext.preference(CompressionThreads))
+          from.copyCompress(to, parallelism = Some(parallelism))
           None
         }
         else {
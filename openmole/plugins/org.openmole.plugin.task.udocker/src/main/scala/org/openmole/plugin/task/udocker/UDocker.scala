@@ -169,12 +169,14 @@ object UDocker {
    *
    * Assume v1.x Image JSON format and registry protocol v2 Schema 1
    */
-  def loadImage(dockerImage: SavedDockerImage)(implicit newFile: NewFile, workspace: Workspace, networkservice: NetworkService): Either[Err, LocalDockerImage] = newFile.withTmpDir { extractedImage ⇒
+  def loadImage(dockerImage: SavedDockerImage)(implicit newFile: NewFile, workspace: Workspace, networkservice: NetworkService, threadProvider: ThreadProvider): Either[Err, LocalDockerImage] = newFile.withTmpDir { extractedImage ⇒
 
     import org.openmole.tool.tar._
 
-    if (!dockerImage.compressed) dockerImage.file.extract(extractedImage)
-    else dockerImage.file.extractUncompress(extractedImage)
+    // the layers are written by the threads of the provider while the image is decompressed, the writes the busy
+    // provider has not started are performed by this thread
+    if (!dockerImage.compressed) dockerImage.file.extractParallel(extractedImage)(threadProvider.pool)
+    else dockerImage.file.extractUncompressParallel(extractedImage)(threadProvider.pool)
 
     val manifestContent = (extractedImage / "manifest.json").content
     assert(manifestContent.size > 0, s"Corrupted saved image with no manifest for file ${dockerImage.file}")
@@ -73,6 +73,7 @@ object Libraries {
   lazy val scalatexSite = "org.openmole.library" %% "com-lihaoyi-scalatex-site" % "0.3.12"
   lazy val math = "org.openmole.library" %% "org-apache-commons-math" % "3.6.1"
   lazy val collections = "org.openmole.library" %% "org-apache-commons-collections" % "4.1"
+  lazy val lz4 = "org.openmole.library" %% "net-jpountz-lz4" % "1.5.0"
   lazy val exec = "org.openmole.library" %% "org-apache-commons-exec" % "1.3"
   lazy val log4j = "org.openmole.library" %% "org-apache-log4j" % "1.2.17"
   lazy val logging = "org.openmole.library" %% "org-apache-commons-logging" % "1.2"
@@ -85,16 +85,25 @@ class PriorityQueue[T](fifo: Boolean) {
 
   def dequeue() = {
     inQueue.acquire
-    synchronized {
-      val (p, q) = queues.last
-      val job = PriorityQueue.pool(q)
-      if (PriorityQueue.isEmpty(q)) queues.remove(p)
-      job
-    }
+    poll()
+  }
+
+  /**
+   * Dequeue the element of highest priority if the queue is not empty, without waiting
+   */
+  def tryDequeue(): Option[T] =
+    if (inQueue.tryAcquire) Some(poll()) else None
+
+  private def poll() = synchronized {
+    val (p, q) = queues.last
+    val job = PriorityQueue.pool(q)
+    if (PriorityQueue.isEmpty(q)) queues.remove(p)
+    job
   }
 
   def all = synchronized { queues.values.toVector.flatMap(PriorityQueue.toVector) }
   def clear() = synchronized { queues.clear() }
-  def isEmpty = synchronized(size == 0)
+  // the empty inner queues are removed
+  def isEmpty = synchronized(queues.isEmpty)
 
 }
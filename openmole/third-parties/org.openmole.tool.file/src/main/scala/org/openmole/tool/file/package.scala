@@ -20,7 +20,7 @@ import java.io._
 import java.nio.channels.FileChannel
 import java.nio.file._
 import java.util.UUID
-import java.util.concurrent.TimeoutException
+import java.util.concurrent.{ ExecutorService, TimeoutException }
 import java.util.logging.Logger
 import java.util.zip.{ GZIPInputStream, GZIPOutputStream, ZipFile }
 
@@ -132,12 +132,12 @@ package file {
           _.copy(to, maxRead, timeout)
         }
 
-      def copyCompressFile(toF: File): File = withClosable(new GZIPOutputStream(toF.bufferedOutputStream())) { to ⇒
+      def copyCompressFile(toF: File, parallelism: Option[CompressionCodec.Parallelism] = None, codec: CompressionCodec = CompressionCodec.GZip): File = withClosable(toF.bufferedOutputStream().compress(codec, parallelism)) { to ⇒
         Files.copy(file, to)
         toF
       }
 
-      def copyUncompressFile(toF: File): File = withClosable(new GZIPInputStream(file.bufferedInputStream)) { from ⇒
+      def copyUncompressFile(toF: File): File = withClosable(file.bufferedInputStream.uncompressed) { from ⇒
         Files.copy(from, toF, StandardCopyOption.REPLACE_EXISTING)
         toF
       }
@@ -419,6 +419,10 @@ package file {
 
       def gzippedBufferedOutputStream = new GZIPOutputStream(bufferedOutputStream())
 
+      /** Gzip output stream, compressing on several threads of the pool when threads > 1 */
+      def parallelGzippedBufferedOutputStream(pool: ExecutorService, threads: Int): OutputStream =
+        if (threads > 1) bufferedOutputStream().toParallelGZ(pool, threads) else gzippedBufferedOutputStream
+
       def withGzippedOutputStream[T] = withClosable[GZIPOutputStream, T](gzippedBufferedOutputStream)(_)
 
       def withGzippedInputStream[T] = withClosable[GZIPInputStream, T](gzippedBufferedInputStream)(_)
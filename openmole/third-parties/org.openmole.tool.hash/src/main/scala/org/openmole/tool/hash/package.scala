@@ -47,13 +47,15 @@ package object hash {
     finally is.close
   }
 
+  def messageDigest(hashType: HashType): MessageDigest =
+    hashType match {
+      case SHA1   ⇒ MessageDigest.getInstance("SHA-1")
+      case SHA256 ⇒ MessageDigest.getInstance("SHA-256")
+    }
+
   def computeHash(is: InputStream, hashType: HashType): Hash = {
     val buffer = new Array[Byte](DefaultBufferSize)
-    val md =
-      hashType match {
-        case SHA1   ⇒ MessageDigest.getInstance("SHA-1")
-        case SHA256 ⇒ MessageDigest.getInstance("SHA-256")
-      }
+    val md = messageDigest(hashType)
     Iterator.continually(is.read(buffer)).takeWhile(_ != -1).foreach {
       count ⇒ md.update(buffer, 0, count)
     }
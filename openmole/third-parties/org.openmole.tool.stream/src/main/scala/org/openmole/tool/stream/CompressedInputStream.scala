@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.stream
+
+import java.io.{ ByteArrayOutputStream, InputStream }
+
+/**
+ * Input stream reading the compressed form of an uncompressed input stream.
+ */
+class CompressedInputStream(is: InputStream, codec: CompressionCodec) extends InputStream {
+
+  var end = false
+  var buffer = Array.empty[Byte]
+  var cur = 0
+
+  val inputBuffer = new Array[Byte](DefaultBufferSize)
+  val byteArrayOutputStream = new ByteArrayOutputStream(1024)
+  val compressor = codec.compress(byteArrayOutputStream)
+
+  bufferizeByteArrayStream()
+
+  override def read(): Int = synchronized {
+    while (bufferEmpty && !end) readFromInput
+    if (!bufferEmpty) readBuffer() & 0xFF
+    else -1
+  }
+
+  override def read(b: Array[Byte], off: Int, len: Int): Int = synchronized {
+    if (len == 0) 0
+    else {
+      while (bufferEmpty && !end) readFromInput
+      if (bufferEmpty) -1
+      else {
+        val count = math.min(len, buffer.length - cur)
+        System.arraycopy(buffer, cur, b, off, count)
+        cur += count
+        count
+      }
+    }
+  }
+
+  override def close = is.close
+
+  private def readFromInput() = {
+    val r = is.read(inputBuffer)
+    if (r != -1) {
+      compressor.write(inputBuffer, 0, r)
+      bufferizeByteArrayStream()
+    }
+    else {
+      compressor.close()
+      bufferizeByteArrayStream()
+      end = true
+    }
+  }
+
+  private def bufferizeByteArrayStream() =
+    if (byteArrayOutputStream.size() > 0) {
+      setBuffer(byteArrayOutputStream.toByteArray)
+      byteArrayOutputStream.reset()
+    }
+
+  private def readBuffer() = {
+    val res = buffer(cur)
+    cur += 1
+    res
+  }
+
+  private def bufferEmpty = cur >= buffer.size
+
+  private def setBuffer(array: Array[Byte]) = {
+    buffer = array
+    cur = 0
+  }
+}
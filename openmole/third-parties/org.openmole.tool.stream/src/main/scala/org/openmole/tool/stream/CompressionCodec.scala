@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.stream
+
+import java.io.{ IOException, InputStream, OutputStream, PushbackInputStream }
+import java.util.concurrent.ExecutorService
+import java.util.zip.{ GZIPInputStream, GZIPOutputStream }
+
+import net.jpountz.lz4.{ LZ4FrameInputStream, LZ4FrameOutputStream }
+
+object CompressionCodec {
+
+  /** Compress the blocks of a stream on the pool of the caller, with threads blocks compressed concurrently */
+  case class Parallelism(pool: ExecutorService, threads: Int)
+
+  /** Gzip, best ratio, the default */
+  object GZip extends CompressionCodec {
+    def name = "gzip"
+    def extension = ".gz"
+    val magic = Array[Byte](0x1f, 0x8b.toByte)
+
+    def compress(os: OutputStream, parallelism: Option[Parallelism]) =
+      parallelism.filter(_.threads > 1) match {
+        case Some(p) ⇒ new ParallelGZIPOutputStream(os, p.pool, p.threads)
+        case None    ⇒ new GZIPOutputStream(os)
+      }
+
+    def decompress(is: InputStream) = new GZIPInputStream(is)
+  }
+
+  /** LZ4 frame format, lower ratio but much faster to compress and decompress */
+  object LZ4 extends CompressionCodec {
+    def name = "lz4"
+    def extension = ".lz4"
+    val magic = Array[Byte](0x04, 0x22, 0x4d, 0x18)
+
+    def compress(os: OutputStream, parallelism: Option[Parallelism]) = new LZ4FrameOutputStream(os)
+    def decompress(is: InputStream) = new LZ4FrameInputStream(is)
+  }
+
+  def all: Seq[CompressionCodec] = Seq(GZip, LZ4)
+
+  def apply(name: String): CompressionCodec =
+    all.find(_.name.equalsIgnoreCase(name)).getOrElse {
+      throw new IllegalArgumentException(s"Unknown compression codec $name, available codecs are ${all.map(_.name).mkString(", ")}")
+    }
+
+  private lazy val maxMagicLength = all.map(_.magic.length).max
+
+  /**
+   * Detect the codec of a compressed stream from its magic bytes. The returned stream must be used in place
+   * of the original one since the magic bytes have been consumed from the latter.
+   */
+  def detect(is: InputStream): (Option[CompressionCodec], InputStream) = {
+    val pushback = new PushbackInputStream(is, maxMagicLength)
+    val header = new Array[Byte](maxMagicLength)
+
+    var read = 0
+    var end = false
+    while (read < header.length && !end) {
+      val r = pushback.read(header, read, header.length - read)
+      if (r == -1) end = true else read += r
+    }
+    pushback.unread(header, 0, read)
+
+    def matches(codec: CompressionCodec) = read >= codec.magic.length && codec.magic.indices.forall(i ⇒ header(i) == codec.magic(i))
+    (all.find(matches), pushback)
+  }
+
+  /**
+   * Decompress a stream compressed with any known codec.
+   */
+  def decompress(is: InputStream): InputStream =
+    detect(is) match {
+      case (Some(codec), stream) ⇒ codec.decompress(stream)
+      case (None, _)             ⇒ throw new IOException(s"Stream is not compressed with a known codec (${all.map(_.name).mkString(", ")})")
+    }
+
+}
+
+/**
+ * A stream compression format.
+ */
+trait CompressionCodec {
+  def name: String
+  def extension: String
+  def magic: Array[Byte]
+
+  /**
+   * @param parallelism pool to compress with, for the codecs supporting parallel compression
+   */
+  def compress(os: OutputStream, parallelism: Option[CompressionCodec.Parallelism]): OutputStream
+  def compress(os: OutputStream): OutputStream = compress(os, None)
+  def decompress(is: InputStream): InputStream
+
+  override def toString = name
+}
@@ -17,60 +17,6 @@
  */
 package org.openmole.tool.stream
 
-import java.io.{ ByteArrayOutputStream, InputStream }
-import java.util.zip.GZIPOutputStream
+import java.io.InputStream
 
-class GZipedInputStream(is: InputStream) extends InputStream {
-
-  var end = false
-  var buffer = Array.empty[Byte]
-  var cur = 0
-
-  val byteArrayOutputStream = new ByteArrayOutputStream(1024)
-  val gzip = new GZIPOutputStream(byteArrayOutputStream)
-
-  bufferizeByteArrayStream()
-
-  override def read(): Int = synchronized {
-    while (bufferEmpty && !end) readFromInput
-    if (!bufferEmpty) readBuffer() & 0xFF
-    else -1
-  }
-
-  override def close = is.close
-
-  private def readFromInput() = {
-    val localBuffer: Array[Byte] = new Array[Byte](1024)
-    val r = is.read(localBuffer)
-    if (r != -1) {
-      gzip.write(localBuffer, 0, r)
-      bufferizeByteArrayStream()
-    }
-    else {
-      gzip.finish()
-      bufferizeByteArrayStream()
-      end = true
-    }
-  }
-
-  private def bufferizeByteArrayStream() = {
-    gzip.flush()
-    if (byteArrayOutputStream.size() > 0) {
-      setBuffer(byteArrayOutputStream.toByteArray)
-      byteArrayOutputStream.reset()
-    }
-  }
-
-  private def readBuffer() = {
-    val res = buffer(cur)
-    cur += 1
-    res
-  }
-
-  private def bufferEmpty = cur >= buffer.size
-
-  private def setBuffer(array: Array[Byte]) = {
-    buffer = byteArrayOutputStream.toByteArray
-    cur = 0
-  }
-}
+class GZipedInputStream(is: InputStream) extends CompressedInputStream(is, CompressionCodec.GZip)
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.stream
+
+import java.io.{ ByteArrayOutputStream, IOException, OutputStream }
+import java.util.concurrent._
+import java.util.zip.{ CRC32, Deflater }
+
+import scala.collection.JavaConverters._
+
+object ParallelGZIPOutputStream {
+  val DefaultBlockSize = 128 * 1024
+  val DictionarySize = 32 * 1024
+
+  def defaultThreads = Runtime.getRuntime.availableProcessors
+
+  private val header = Array[Byte](0x1f, 0x8b.toByte, 8, 0, 0, 0, 0, 0, 0, 0xff.toByte)
+
+  private class Block(data: Array[Byte], length: Int, dictionary: Option[(Array[Byte], Int)], last: Boolean, level: Int) extends Callable[Array[Byte]] {
+    override def call(): Array[Byte] = {
+      val deflater = new Deflater(level, true)
+      try {
+        dictionary.foreach {
+          case (previous, previousLength) ⇒
+            val dictionaryLength = math.min(DictionarySize, previousLength)
+            deflater.setDictionary(previous, previousLength - dictionaryLength, dictionaryLength)
+        }
+
+        val out = new ByteArrayOutputStream(length / 2 + 64)
+        val buffer = new Array[Byte](DefaultBufferSize)
+        deflater.setInput(data, 0, length)
+
+        if (last) {
+          deflater.finish()
+          while (!deflater.finished) out.write(buffer, 0, deflater.deflate(buffer))
+        }
+        else {
+          var count = 0
+          do {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)
+            out.write(buffer, 0, count)
+          } while (count == buffer.length)
+        }
+
+        out.toByteArray
+      }
+      finally deflater.end()
+    }
+  }
+}
+
+/**
+ * Gzip output stream compressing blocks of the input concurrently, in the manner of pigz. Each block is
+ * deflated independently (primed with the last 32KB of the previous block as dictionary) and ended by a
+ * sync flush so that the concatenated blocks form a single valid gzip member. The blocks are deflated by the pool
+ * of the caller, which is not shut down by the stream, with at most 2 * threads blocks in flight. The writing thread
+ * compresses itself the blocks the pool has not started yet when it needs them.
+ */
+class ParallelGZIPOutputStream(
+  os:        OutputStream,
+  pool:      ExecutorService,
+  threads:   Int             = ParallelGZIPOutputStream.defaultThreads,
+  blockSize: Int             = ParallelGZIPOutputStream.DefaultBlockSize,
+  level:     Int             = Deflater.DEFAULT_COMPRESSION) extends OutputStream {
+
+  import ParallelGZIPOutputStream._
+
+  private val pending = new java.util.ArrayDeque[FutureTask[Array[Byte]]]()
+  private val crc = new CRC32
+  private val oneByte = new Array[Byte](1)
+
+  private var buffer = new Array[Byte](blockSize)
+  private var position = 0
+  private var previous: Option[(Array[Byte], Int)] = None
+  private var totalSize = 0L
+  private var finished = false
+  private var closed = false
+
+  os.write(header)
+
+  override def write(b: Int): Unit = {
+    oneByte(0) = b.toByte
+    write(oneByte, 0, 1)
+  }
+
+  override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+    if (finished) throw new IOException("Stream has already been finished")
+    crc.update(b, off, len)
+    totalSize += len
+
+    var offset = off
+    var remaining = len
+    while (remaining > 0) {
+      val toCopy = math.min(remaining, blockSize - position)
+      System.arraycopy(b, offset, buffer, position, toCopy)
+      position += toCopy
+      offset += toCopy
+      remaining -= toCopy
+      if (position == blockSize) submit(last = false)
+    }
+  }
+
+  /**
+   * Write all the compressed blocks, the gzip trailer and leave the underlying stream open.
+   */
+  def finish(): Unit = if (!finished) {
+    submit(last = true)
+    while (!pending.isEmpty) writeHead()
+
+    val trailer = new Array[Byte](8)
+    writeIntLE(crc.getValue, trailer, 0)
+    writeIntLE(totalSize, trailer, 4)
+    os.write(trailer)
+    finished = true
+  }
+
+  override def flush(): Unit = os.flush()
+
+  override def close(): Unit = if (!closed) {
+    try finish()
+    finally {
+      closed = true
+      pending.asScala.foreach(_.cancel(true))
+      pending.clear()
+      os.close()
+    }
+  }
+
+  private def submit(last: Boolean) = {
+    val block = new Block(buffer, position, previous, last, level)
+    val task = new FutureTask(block)
+    pool.execute(task)
+    pending.addLast(task)
+    previous = Some((buffer, position))
+    buffer = new Array[Byte](blockSize)
+    position = 0
+    while (pending.size > 2 * threads) writeHead()
+  }
+
+  // a block not yet started by the pool is compressed by the writing thread so that a busy pool can't stall it
+  private def writeHead() =
+    try {
+      val task = pending.removeFirst()
+      task.run()
+      os.write(task.get())
+    }
+    catch {
+      case e: ExecutionException ⇒ throw new IOException("Error while compressing block", e.getCause)
+    }
+
+  private def writeIntLE(v: Long, buffer: Array[Byte], offset: Int) = {
+    buffer(offset) = (v & 0xff).toByte
+    buffer(offset + 1) = ((v >> 8) & 0xff).toByte
+    buffer(offset + 2) = ((v >> 16) & 0xff).toByte
+    buffer(offset + 3) = ((v >> 24) & 0xff).toByte
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.stream
+
+import java.io.{ IOException, InputStream, OutputStream }
+import java.util.concurrent.{ ArrayBlockingQueue, ThreadFactory, TimeUnit }
+
+import squants.time._
+import squants.time.TimeConversions._
+
+object ProducerInputStream {
+  val DefaultChunkSize = 64 * 1024
+  val DefaultChunks = 16
+  val DefaultStallTimeout = 10 minutes
+
+  private val End = new Array[Byte](0)
+  private val PollInterval = 100
+}
+
+/**
+ * Input stream on the bytes written by a producer function running in its own thread. The bytes go through a bounded
+ * queue of chunks, so the producer waits when the reader lags behind and at most chunks * chunkSize bytes are held in
+ * memory. The stream ends when the producer returns, an exception thrown by the producer is rethrown to the reader.
+ * Closing the stream before its end aborts the producer, so does a reader which doesn't read anything for longer than
+ * the stall timeout. The producer never blocks once it has been aborted.
+ *
+ * @param threadFactory factory of the thread running the producer
+ */
+class ProducerInputStream(
+  produce:       OutputStream ⇒ Unit,
+  threadFactory: ThreadFactory,
+  chunkSize:     Int                  = ProducerInputStream.DefaultChunkSize,
+  chunks:        Int                  = ProducerInputStream.DefaultChunks,
+  stallTimeout:  Time                 = ProducerInputStream.DefaultStallTimeout) extends InputStream {
+
+  import ProducerInputStream._
+
+  private val queue = new ArrayBlockingQueue[Array[Byte]](chunks)
+  @volatile private var failure: Option[Throwable] = None
+  @volatile private var closed = false
+  @volatile private var produced = false
+
+  private var current: Array[Byte] = null
+  private var position = 0
+  private var ended = false
+  private var readBytes = 0L
+  private val oneByte = new Array[Byte](1)
+
+  private val producer = threadFactory.newThread(new Runnable {
+    override def run(): Unit = {
+      val os = new ChunkOutputStream
+      try {
+        produce(os)
+        os.flush()
+      }
+      catch {
+        case t: Throwable ⇒ failure = Some(t)
+      }
+      finally {
+        // all the chunks have been enqueued, the end marker only wakes the reader up and is dropped if the queue is full
+        produced = true
+        queue.offer(End)
+      }
+    }
+  })
+
+  producer.start()
+
+  override def read(): Int =
+    if (read(oneByte, 0, 1) == -1) -1 else oneByte(0) & 0xff
+
+  override def read(b: Array[Byte], off: Int, len: Int): Int = {
+    if (closed) throw new IOException("Stream closed")
+    if (len == 0) return 0
+
+    while (!ended && (current == null || position == current.length)) {
+      val next = queue.poll(PollInterval, TimeUnit.MILLISECONDS)
+      if (next == null) { if (produced && queue.isEmpty) ended = true }
+      else if (next eq End) ended = true
+      else {
+        current = next
+        position = 0
+      }
+    }
+
+    failure.foreach(t ⇒ throw new IOException("Error while producing the content of the stream", t))
+
+    if (ended) -1
+    else {
+      val read = math.min(len, current.length - position)
+      System.arraycopy(current, position, b, off, read)
+      position += read
+      readBytes += read
+      read
+    }
+  }
+
+  /** Number of bytes read from this stream */
+  def bytesRead = readBytes
+
+  override def close(): Unit = if (!closed) {
+    closed = true
+    queue.clear()
+    producer.interrupt()
+  }
+
+  private def enqueue(chunk: Array[Byte]) = {
+    val deadline = System.currentTimeMillis + stallTimeout.millis
+    try {
+      while (!queue.offer(chunk, PollInterval, TimeUnit.MILLISECONDS)) {
+        if (closed) throw new IOException("Stream closed by the reader")
+        if (System.currentTimeMillis > deadline) throw new IOException(s"Nothing has been read from the stream for $stallTimeout")
+      }
+    }
+    catch {
+      case e: InterruptedException ⇒ throw new IOException("Producer interrupted", e)
+    }
+  }
+
+  private class ChunkOutputStream extends OutputStream {
+    private var buffer = new Array[Byte](chunkSize)
+    private var size = 0
+    private val single = new Array[Byte](1)
+
+    override def write(b: Int): Unit = {
+      single(0) = b.toByte
+      write(single, 0, 1)
+    }
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+      var offset = off
+      var remaining = len
+      while (remaining > 0) {
+        if (closed) throw new IOException("Stream closed by the reader")
+        val toCopy = math.min(remaining, chunkSize - size)
+        System.arraycopy(b, offset, buffer, size, toCopy)
+        size += toCopy
+        offset += toCopy
+        remaining -= toCopy
+        if (size == chunkSize) flush()
+      }
+    }
+
+    override def flush(): Unit = if (size > 0) {
+      if (size == chunkSize) {
+        enqueue(buffer)
+        buffer = new Array[Byte](chunkSize)
+      }
+      else enqueue(java.util.Arrays.copyOf(buffer, size))
+      size = 0
+    }
+
+    // the end of the stream is signaled when the producer returns
+    override def close(): Unit = flush()
+  }
+
+}
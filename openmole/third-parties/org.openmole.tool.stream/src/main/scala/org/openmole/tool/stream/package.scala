@@ -19,7 +19,7 @@ package org.openmole.tool
 
 import java.io._
 import java.nio.file._
-import java.util.concurrent.{ Callable, ThreadPoolExecutor, TimeUnit, TimeoutException }
+import java.util.concurrent.{ Callable, ExecutorService, ThreadPoolExecutor, TimeUnit, TimeoutException }
 import java.util.zip.{ GZIPInputStream, GZIPOutputStream }
 
 import squants.time._
@@ -69,6 +69,10 @@ package object stream {
 
     def toGZ = new GZIPOutputStream(os)
 
+    def toParallelGZ(pool: ExecutorService, threads: Int = ParallelGZIPOutputStream.defaultThreads) = new ParallelGZIPOutputStream(os, pool, threads)
+
+    def compress(codec: CompressionCodec, parallelism: Option[CompressionCodec.Parallelism] = None) = codec.compress(os, parallelism)
+
     def append(content: String) = new PrintWriter(os).append(content).flush
 
     def appendLine(line: String) = append(line + "\n")
@@ -98,6 +102,11 @@ package object stream {
 
     def toGZ = new GZIPInputStream(is)
 
+    def compressed(codec: CompressionCodec) = new CompressedInputStream(is, codec)
+
+    /** Decompress a stream, the codec is detected from the magic bytes */
+    def uncompressed = CompressionCodec.decompress(is)
+
     // this one must have REPLACE_EXISTING enabled but does not support COPY_ATTRIBUTES, nor NOFOLLOW_LINKS
     def copy(file: File, replace: Boolean = true) =
       Files.copy(
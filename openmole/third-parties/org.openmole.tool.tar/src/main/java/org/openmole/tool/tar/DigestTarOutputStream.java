@@ -0,0 +1,61 @@
+package org.openmole.tool.tar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * A TarOutputStream updating a message digest with every byte of the archive
+ * it writes, padding and EOF records included. The digest of an archive is
+ * thus computed while the archive is written, without reading it back.
+ *
+ * When no output stream is given the archive is discarded and only its
+ * digest is computed.
+ */
+
+public class DigestTarOutputStream extends TarOutputStream {
+
+	private final MessageDigest digest;
+	private byte[] result = null;
+
+	public DigestTarOutputStream(MessageDigest digest) {
+		this(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}, digest);
+	}
+
+	public DigestTarOutputStream(OutputStream os, MessageDigest digest) {
+		super(new DigestOutputStream(os, digest));
+		this.digest = digest;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.result != null) {
+			return;
+		}
+
+		super.close();
+		this.result = this.digest.digest();
+	}
+
+	/**
+	 * @return The digest of the whole archive, available once the stream has
+	 *         been closed.
+	 */
+	public byte[] getDigest() {
+		if (this.result == null) {
+			throw new IllegalStateException(
+					"the digest is only available once the archive is closed");
+		}
+		return this.result.clone();
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.openmole.tool.tar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Buffers written bytes in memory up to a threshold, then spills them to a
+ * temporary file. It is used to compute the size of tar entries of unknown
+ * size without holding large entries on the heap.
+ */
+
+public class SpillingOutputStream extends OutputStream {
+
+	public static final int DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+
+	private final int threshold;
+	private final Path directory;
+
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private Path spillFile = null;
+	private OutputStream spill = null;
+	private long size = 0;
+
+	public SpillingOutputStream() {
+		this(DEFAULT_THRESHOLD, null);
+	}
+
+	/**
+	 * @param threshold
+	 *            The number of bytes kept in memory before spilling to disk.
+	 * @param directory
+	 *            The directory of the spill file, the default temporary
+	 *            directory if null.
+	 */
+	public SpillingOutputStream(int threshold, Path directory) {
+		this.threshold = threshold;
+		this.directory = directory;
+	}
+
+	public long size() {
+		return this.size;
+	}
+
+	public boolean isSpilled() {
+		return this.spillFile != null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.prepare(1).write(b);
+		this.size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.prepare(len).write(b, off, len);
+		this.size += len;
+	}
+
+	/**
+	 * Copy the buffered bytes to an output stream.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (this.spill != null) {
+			this.spill.flush();
+			Files.copy(this.spillFile, out);
+		} else {
+			this.memory.writeTo(out);
+		}
+	}
+
+	/**
+	 * Discard the buffered bytes and delete the spill file if any.
+	 */
+	public void reset() throws IOException {
+		this.size = 0;
+		this.memory = new ByteArrayOutputStream();
+		this.deleteSpill();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.memory = null;
+		this.deleteSpill();
+	}
+
+	private OutputStream prepare(int toWrite) throws IOException {
+		if (this.spill != null) {
+			return this.spill;
+		}
+
+		if (this.size + toWrite <= this.threshold) {
+			return this.memory;
+		}
+
+		this.spillFile = this.directory == null ? Files.createTempFile(
+				"tarentry", ".spill") : Files.createTempFile(this.directory,
+				"tarentry", ".spill");
+		this.spill = new BufferedOutputStream(
+				Files.newOutputStream(this.spillFile),
+				TarConstants.LARGE_BUFFER_SIZE);
+		this.memory.writeTo(this.spill);
+		this.memory = new ByteArrayOutputStream();
+		return this.spill;
+	}
+
+	private void deleteSpill() throws IOException {
+		if (this.spill != null) {
+			try {
+				this.spill.close();
+			} finally {
+				Files.deleteIfExists(this.spillFile);
+				this.spill = null;
+				this.spillFile = null;
+			}
+		}
+	}
+
+}
@@ -204,6 +204,20 @@ public class TarBuffer extends Object {
      * @throws IOException on error
      */
     public byte[] readRecord() throws IOException {
+        byte[] result = new byte[recordSize];
+        return readRecord(result, 0) ? result : null;
+    }
+
+    /**
+     * Read a record from the input stream into a caller provided buffer, so
+     * that records can be read without allocating.
+     *
+     * @param record The buffer to fill, it must have room for a record at offset.
+     * @param offset The offset of the record in the buffer.
+     * @return false if End-Of-File, else true
+     * @throws IOException on error
+     */
+    public boolean readRecord(byte[] record, int offset) throws IOException {
     	if(logger.isLoggable(Level.FINEST)) {
             logger.finest("ReadRecord: recIdx = " + currRecIdx
                                + " blkIdx = " + currBlkIdx);
@@ -215,19 +229,17 @@ public class TarBuffer extends Object {
 
         if (this.currRecIdx >= this.recsPerBlock) {
             if (!readBlock()) {
-                return null;
+                return false;
             }
         }
 
-        byte[] result = new byte[recordSize];
-
         System.arraycopy(this.blockBuffer,
-                         (this.currRecIdx * this.recordSize), result, 0,
+                         (this.currRecIdx * this.recordSize), record, offset,
                          this.recordSize);
 
         this.currRecIdx++;
 
-        return result;
+        return true;
     }
 
     /**
@@ -104,6 +104,8 @@ import java.util.logging.Logger;
 public class TarEntry extends Object implements Cloneable {
 
     private static final Logger logger = Logger.getLogger(TarEntry.class.getName());
+    /** The default user name, looked up once */
+    private static final String DEFAULT_USER_NAME = defaultUserName();
     /** Format choices **/
     public static final int GNU_FORMAT = 0;
     public static final int USTAR_FORMAT = 1;
@@ -165,18 +167,21 @@ public class TarEntry extends Object implements Cloneable {
         this.name = null;
         this.linkName = "";
 
-        String user = System.getProperty("user.name", "");
-        if (user.length() > MAX_NAMELEN) {
-            user = user.substring(0, MAX_NAMELEN);
-        }
-
         this.userId = 0;
         this.groupId = 0;
-        this.userName = user;
+        this.userName = DEFAULT_USER_NAME;
         this.groupName = "";
         this.file = null;
     }
 
+    private static String defaultUserName() {
+        String user = System.getProperty("user.name", "");
+        if (user.length() > MAX_NAMELEN) {
+            user = user.substring(0, MAX_NAMELEN);
+        }
+        return user;
+    }
+
     /**
      * Construct an entry from an archive's header bytes. File is set to null.
      * 
@@ -184,8 +189,24 @@ public class TarEntry extends Object implements Cloneable {
      *            The header bytes from a tar archive entry.
      */
     public TarEntry(byte[] headerBuf) throws InvalidHeaderException {
-        this();
-        this.parseTarHeader(headerBuf);
+        this(headerBuf, null);
+    }
+
+    /**
+     * Construct an entry from an archive's header bytes, the strings of the
+     * previous entry of the archive are reused when the header holds the
+     * same values. All the fields are read from the header, so the defaults
+     * are not computed.
+     * 
+     * @param headerBuf
+     *            The header bytes from a tar archive entry.
+     * @param previous
+     *            The previous entry of the archive, may be null.
+     */
+    public TarEntry(byte[] headerBuf, TarEntry previous)
+            throws InvalidHeaderException {
+        this.linkName = "";
+        this.parseTarHeader(headerBuf, previous);
     }
 
     /**
@@ -319,6 +340,15 @@ public class TarEntry extends Object implements Cloneable {
         return this.name;
     }
 
+    /**
+     * Get this entry's link flag, the type of the entry.
+     * 
+     * @return This entry's link flag.
+     */
+    public byte getLinkFlag() {
+        return this.linkFlag;
+    }
+
     /**
      * Get this entry's file size.
      * 
@@ -531,6 +561,11 @@ public class TarEntry extends Object implements Cloneable {
      *            The tar entry header buffer to get information from.
      */
     public void parseTarHeader(byte[] headerBuf) throws InvalidHeaderException {
+        this.parseTarHeader(headerBuf, null);
+    }
+
+    private void parseTarHeader(byte[] headerBuf, TarEntry previous)
+            throws InvalidHeaderException {
 
         int offset = 0;
 
@@ -649,17 +684,20 @@ public class TarEntry extends Object implements Cloneable {
         if (this.tarFormat == USTAR_FORMAT) {
 
             this.magic = TarFileUtil.parseName(headerBuf, offset,
-                    TarConstants.MAGICLEN);
+                    TarConstants.MAGICLEN, previous != null ? previous.magic
+                            : null);
 
             offset += TarConstants.MAGICLEN;
 
             this.userName = TarFileUtil.parseName(headerBuf, offset,
-                    TarConstants.UNAMELEN);
+                    TarConstants.UNAMELEN, previous != null ? previous.userName
+                            : null);
 
             offset += TarConstants.UNAMELEN;
 
             this.groupName = TarFileUtil.parseName(headerBuf, offset,
-                    TarConstants.GNAMELEN);
+                    TarConstants.GNAMELEN, previous != null ? previous.groupName
+                            : null);
 
             offset += TarConstants.GNAMELEN;
 
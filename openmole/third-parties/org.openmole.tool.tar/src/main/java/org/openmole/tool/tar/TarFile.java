@@ -0,0 +1,431 @@
+package org.openmole.tool.tar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Random access reader for uncompressed tar archives. The archive is scanned
+ * once to build an index of its entries (name to header offset, data offset
+ * and size), then the content of any entry can be read without going through
+ * the preceding ones.
+ *
+ * The index can be persisted in a sidecar file next to the archive, it is
+ * reused as long as the size and the modification time of the archive are
+ * unchanged.
+ *
+ * Reads are positional, so entry views can be used concurrently from several
+ * threads.
+ */
+
+public class TarFile implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(TarFile.class.getName());
+
+	public static final String INDEX_SUFFIX = ".index";
+
+	private static final int INDEX_MAGIC = 0x4f4d5449;
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * Location of an entry in the archive.
+	 */
+	public static class Entry {
+		private final String name;
+		private final long headerOffset;
+		private final long dataOffset;
+		private final long size;
+
+		Entry(String name, long headerOffset, long dataOffset, long size) {
+			this.name = name;
+			this.headerOffset = headerOffset;
+			this.dataOffset = dataOffset;
+			this.size = size;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public long getHeaderOffset() {
+			return this.headerOffset;
+		}
+
+		public long getDataOffset() {
+			return this.dataOffset;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+	}
+
+	private final Path archive;
+	private final FileChannel channel;
+	private final int recordSize;
+	private final Map<String, Entry> index;
+
+	/**
+	 * Open an archive and index it, the index is not persisted.
+	 */
+	public TarFile(Path archive) throws IOException {
+		this(archive, false);
+	}
+
+	/**
+	 * Open an archive and index it.
+	 *
+	 * @param sidecar
+	 *            If true, load the index from the sidecar file when it is up
+	 *            to date and write it otherwise.
+	 */
+	public TarFile(Path archive, boolean sidecar) throws IOException {
+		this.archive = archive;
+		this.recordSize = TarConstants.DEFAULT_RCDSIZE;
+		this.channel = FileChannel.open(archive, StandardOpenOption.READ);
+
+		try {
+			Map<String, Entry> loaded = sidecar ? this.loadIndex() : null;
+			if (loaded != null) {
+				this.index = loaded;
+			} else {
+				this.index = this.buildIndex();
+				if (sidecar) {
+					this.saveIndex();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	public static Path indexFile(Path archive) {
+		return archive.resolveSibling(archive.getFileName() + INDEX_SUFFIX);
+	}
+
+	public Path getArchive() {
+		return this.archive;
+	}
+
+	/**
+	 * @return The entry names in archive order.
+	 */
+	public Collection<String> getNames() {
+		return Collections.unmodifiableCollection(this.index.keySet());
+	}
+
+	public Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(this.index.values());
+	}
+
+	public boolean contains(String name) {
+		return this.index.containsKey(name);
+	}
+
+	/**
+	 * Get the location of an entry.
+	 *
+	 * @throws IOException
+	 *             If there is no such entry.
+	 */
+	public Entry get(String name) throws IOException {
+		Entry entry = this.index.get(name);
+		if (entry == null) {
+			throw new IOException("no entry named '" + name + "' in "
+					+ this.archive);
+		}
+		return entry;
+	}
+
+	/**
+	 * Read the full header of an entry.
+	 */
+	public TarEntry getTarEntry(String name) throws IOException {
+		Entry entry = this.get(name);
+		TarEntry tarEntry = new TarEntry(this.readRecord(entry.headerOffset));
+		tarEntry.setName(entry.name);
+		return tarEntry;
+	}
+
+	/**
+	 * @return A read only channel on the content of an entry.
+	 */
+	public SeekableByteChannel getChannel(String name) throws IOException {
+		return new EntryChannel(this.get(name));
+	}
+
+	/**
+	 * @return An input stream on the content of an entry.
+	 */
+	public InputStream getInputStream(String name) throws IOException {
+		return new BufferedInputStream(Channels.newInputStream(this
+				.getChannel(name)), TarConstants.LARGE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Map the content of an entry in memory.
+	 */
+	public MappedByteBuffer map(String name) throws IOException {
+		Entry entry = this.get(name);
+		return this.channel.map(FileChannel.MapMode.READ_ONLY,
+				entry.dataOffset, entry.size);
+	}
+
+	/**
+	 * Transfer the content of an entry to a channel, without copying it
+	 * through the java heap when the target allows it.
+	 */
+	public void transferTo(String name, WritableByteChannel target)
+			throws IOException {
+		Entry entry = this.get(name);
+		long transferred = 0;
+		while (transferred < entry.size) {
+			long count = this.channel.transferTo(entry.dataOffset
+					+ transferred, entry.size - transferred, target);
+			if (count <= 0) {
+				throw new IOException("unexpected end of archive "
+						+ this.archive + " in entry " + name + " at "
+						+ (entry.dataOffset + transferred));
+			}
+			transferred += count;
+		}
+	}
+
+	/**
+	 * Extract the content of an entry to a file.
+	 */
+	public void extract(String name, Path destination) throws IOException {
+		try (FileChannel out = FileChannel.open(destination,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			this.transferTo(name, out);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private byte[] readRecord(long position) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(this.recordSize);
+		this.readFully(record, position);
+		return record.array();
+	}
+
+	private void readFully(ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = this.channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("unexpected end of archive " + this.archive
+						+ " at " + position);
+			}
+			position += read;
+		}
+	}
+
+	private long padded(long size) {
+		long remainder = size % this.recordSize;
+		return remainder == 0 ? size : size + this.recordSize - remainder;
+	}
+
+	private Map<String, Entry> buildIndex() throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+		long size = this.channel.size();
+		long position = 0;
+		String longName = null;
+		ByteBuffer record = ByteBuffer.allocate(this.recordSize);
+		TarHeader header = new TarHeader(record.array());
+
+		while (position + this.recordSize <= size) {
+			record.clear();
+			this.readFully(record, position);
+
+			if (header.isEOF()) {
+				break;
+			}
+
+			long dataOffset = position + this.recordSize;
+			long dataSize = header.isDirectory() ? 0 : header.getSize();
+
+			if (header.isGNULongNameEntry()) {
+				ByteBuffer name = ByteBuffer.allocate((int) dataSize);
+				this.readFully(name, dataOffset);
+				int length = (int) dataSize;
+				while (length > 0 && name.get(length - 1) == 0) {
+					length--;
+				}
+				longName = new String(name.array(), 0, length,
+						StandardCharsets.ISO_8859_1);
+			} else {
+				String name = longName != null ? longName : header.getName();
+				longName = null;
+				entries.put(name, new Entry(name, position, dataOffset, dataSize));
+			}
+
+			position = dataOffset + this.padded(dataSize);
+		}
+
+		return entries;
+	}
+
+	private Map<String, Entry> loadIndex() throws IOException {
+		Path indexFile = indexFile(this.archive);
+		if (!Files.exists(indexFile)) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(indexFile)))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+					|| in.readLong() != this.channel.size()
+					|| in.readLong() != Files.getLastModifiedTime(this.archive)
+							.toMillis()) {
+				return null;
+			}
+
+			int count = in.readInt();
+			Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+			for (int i = 0; i < count; ++i) {
+				String name = in.readUTF();
+				entries.put(name, new Entry(name, in.readLong(), in.readLong(),
+						in.readLong()));
+			}
+			return entries;
+		} catch (IOException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Ignoring unreadable index " + indexFile, e);
+			}
+			return null;
+		}
+	}
+
+	private void saveIndex() throws IOException {
+		Path indexFile = indexFile(this.archive);
+		Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(this.channel.size());
+			out.writeLong(Files.getLastModifiedTime(this.archive).toMillis());
+			out.writeInt(this.index.size());
+			for (Entry entry : this.index.values()) {
+				out.writeUTF(entry.name);
+				out.writeLong(entry.headerOffset);
+				out.writeLong(entry.dataOffset);
+				out.writeLong(entry.size);
+			}
+		}
+
+		Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read only view on the content of an entry.
+	 */
+	private class EntryChannel implements SeekableByteChannel {
+		private final Entry entry;
+		private long position = 0;
+		private boolean open = true;
+
+		EntryChannel(Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!this.open) {
+				throw new ClosedChannelException();
+			}
+
+			long remaining = this.entry.size - this.position;
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int limit = dst.limit();
+			if (dst.remaining() > remaining) {
+				dst.limit(dst.position() + (int) remaining);
+			}
+
+			try {
+				int read = TarFile.this.channel.read(dst, this.entry.dataOffset
+						+ this.position);
+				if (read > 0) {
+					this.position += read;
+				}
+				return read;
+			} finally {
+				dst.limit(limit);
+			}
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() {
+			return this.position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) {
+			if (newPosition < 0) {
+				throw new IllegalArgumentException("negative position");
+			}
+			this.position = newPosition;
+			return this;
+		}
+
+		@Override
+		public long size() {
+			return this.entry.size;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.open && TarFile.this.channel.isOpen();
+		}
+
+		@Override
+		public void close() {
+			this.open = false;
+		}
+	}
+
+}
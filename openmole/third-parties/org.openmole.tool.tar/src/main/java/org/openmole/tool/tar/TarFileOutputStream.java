@@ -0,0 +1,395 @@
+package org.openmole.tool.tar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Writes a tar archive directly to a file channel. Headers are encoded in a
+ * single reusable record and the content of files added through
+ * transferFrom() is moved with FileChannel.transferTo, so that it doesn't go
+ * through user space buffers. The produced archive is identical to the one
+ * produced by a TarOutputStream on the same entries.
+ *
+ * When a digest is given, it is computed on the archive as it is written:
+ * the content of the transferred files is read through a read only mapping.
+ *
+ * Content written through the write() methods is buffered and supported as
+ * well, so this stream can be used everywhere a TarOutputStream is expected.
+ */
+
+public class TarFileOutputStream extends TarOutputStream {
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int DIGEST_BUFFER_SIZE = 256 * 1024;
+
+	private FileChannel channel;
+	private final ByteBuffer writeBuffer;
+	private ByteBuffer digestBuffer;
+	private final byte[] recordBuf;
+	private final byte[] oneBuf;
+	private final int blockSize;
+	private final MessageDigest digest;
+	private byte[] result;
+
+	private long position;
+	private long currSize;
+	private long currBytes;
+
+	public TarFileOutputStream(Path file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param digest
+	 *            The digest to compute on the archive, null for none.
+	 */
+	public TarFileOutputStream(Path file, MessageDigest digest)
+			throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING),
+				TarConstants.DEFAULT_BLKSIZE, TarConstants.DEFAULT_RCDSIZE,
+				digest);
+	}
+
+	public TarFileOutputStream(FileChannel channel) {
+		this(channel, TarConstants.DEFAULT_BLKSIZE,
+				TarConstants.DEFAULT_RCDSIZE);
+	}
+
+	public TarFileOutputStream(FileChannel channel, int blockSize,
+			int recordSize) {
+		this(channel, blockSize, recordSize, null);
+	}
+
+	public TarFileOutputStream(FileChannel channel, int blockSize,
+			int recordSize, MessageDigest digest) {
+		super(null, blockSize, recordSize);
+		this.channel = channel;
+		this.blockSize = blockSize;
+		this.digest = digest;
+		this.recordBuf = new byte[recordSize];
+		this.oneBuf = new byte[1];
+		this.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.channel == null) {
+			return;
+		}
+
+		try {
+			this.finish();
+			this.flushBuffer();
+			if (this.digest != null) {
+				this.result = this.digest.digest();
+			}
+		} finally {
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+
+	/**
+	 * Pads the current entry up to the record boundary.
+	 */
+	@Override
+	public void closeEntry() throws IOException {
+		if (this.currBytes < this.currSize) {
+			throw new IOException("entry closed at '" + this.currBytes
+					+ "' before the '" + this.currSize
+					+ "' bytes specified in the header were written");
+		}
+
+		this.pad(this.recordBuf.length);
+	}
+
+	/**
+	 * Writes the EOF record and pads the archive up to the block boundary.
+	 */
+	@Override
+	public void finish() throws IOException {
+		this.putZeros(this.recordBuf.length);
+		this.pad(this.blockSize);
+	}
+
+	/**
+	 * Multi-volume archives are not supported, the archive is written to a
+	 * single file.
+	 */
+	@Override
+	public void closeMulti() throws IOException {
+		throw multiVolumeNotSupported();
+	}
+
+	/**
+	 * Multi-volume archives are not supported, the archive is written to a
+	 * single file.
+	 */
+	@Override
+	public void closeEntryMulti() throws IOException {
+		throw multiVolumeNotSupported();
+	}
+
+	/**
+	 * Multi-volume archives are not supported, the archive is written to a
+	 * single file.
+	 */
+	@Override
+	public void putNextEntry(TarEntry entry, long atByte, long length)
+			throws IOException {
+		throw multiVolumeNotSupported();
+	}
+
+	private static IOException multiVolumeNotSupported() {
+		return new IOException(
+				"multi-volume archives are not supported by TarFileOutputStream");
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.flushBuffer();
+	}
+
+	@Override
+	public int getRecordSize() {
+		return this.recordBuf.length;
+	}
+
+	@Override
+	public void putNextEntry(TarEntry entry) throws IOException {
+		String name = entry.getName();
+
+		if (name.length() >= TarConstants.NAMELEN
+				|| entry.getTarFormat() != TarEntry.UNIX_FORMAT
+				&& name.length() > TarConstants.NAMELEN
+						+ TarConstants.PREFIXLEN) {
+
+			if (entry.getTarFormat() == TarEntry.GNU_FORMAT) {
+				TarEntry longLinkEntry = new TarEntry(
+						TarConstants.GNU_LONGLINK,
+						TarConstants.LF_GNUTYPE_LONGNAME);
+
+				longLinkEntry.setModTime(entry.getModTime());
+				longLinkEntry.setSize(name.length() + 1);
+				putNextEntry(longLinkEntry);
+				write(name.getBytes(StandardCharsets.ISO_8859_1));
+				write(0);
+				closeEntry();
+			} else {
+				throw new InvalidHeaderException("file name '" + name
+						+ "' is too long ( " + name.length() + " > "
+						+ (entry.getTarFormat() == TarEntry.UNIX_FORMAT
+								? TarConstants.NAMELEN
+								: TarConstants.NAMELEN
+										+ TarConstants.PREFIXLEN)
+						+ " bytes )");
+			}
+		}
+
+		entry.writeEntryHeader(this.recordBuf);
+		this.put(this.recordBuf, 0, this.recordBuf.length);
+
+		this.currBytes = 0;
+		this.currSize = entry.isDirectory() ? 0 : entry.getSize();
+	}
+
+	/**
+	 * Transfers the whole content of a file as the content of the current
+	 * entry, without copying it through the java heap.
+	 *
+	 * @param source
+	 *            The file to transfer, its size must match the size of the
+	 *            current entry.
+	 */
+	public void transferFrom(Path source) throws IOException {
+		this.flushBuffer();
+
+		try (FileChannel in = FileChannel.open(source,
+				StandardOpenOption.READ)) {
+			long size = in.size();
+			this.checkSize(size);
+			this.digestRange(in, 0, size);
+
+			long transferred = 0;
+			while (transferred < size) {
+				long count = in.transferTo(transferred, size - transferred,
+						this.channel);
+				if (count <= 0 && in.size() < size) {
+					throw new IOException("file " + source
+							+ " has been truncated while archived");
+				}
+				transferred += count;
+			}
+
+			this.currBytes += size;
+			this.position += size;
+		}
+	}
+
+	/**
+	 * Copies a range of another archive as is. The range must hold whole
+	 * entries (headers and padded content), it is typically an entry of a
+	 * previous version of the archive being written.
+	 *
+	 * @param source
+	 *            The channel of the other archive.
+	 * @param offset
+	 *            The offset of the first header of the range.
+	 * @param length
+	 *            The length of the range, a multiple of the record size.
+	 */
+	public void splice(FileChannel source, long offset, long length)
+			throws IOException {
+		if (this.currBytes < this.currSize) {
+			throw new IOException("cannot splice while an entry is written");
+		}
+		if (length % this.recordBuf.length != 0) {
+			throw new IOException("spliced range of " + length
+					+ " bytes is not made of whole records");
+		}
+
+		this.flushBuffer();
+		this.digestRange(source, offset, length);
+
+		long transferred = 0;
+		while (transferred < length) {
+			long count = source.transferTo(offset + transferred, length
+					- transferred, this.channel);
+			if (count <= 0) {
+				throw new IOException("unexpected end of the spliced archive at "
+						+ (offset + transferred));
+			}
+			transferred += count;
+		}
+
+		this.position += length;
+	}
+
+	/**
+	 * @return The digest of the whole archive, available once the stream has
+	 *         been closed.
+	 */
+	public byte[] getDigest() {
+		if (this.result == null) {
+			throw new IllegalStateException(
+					"the digest is only available once the archive is closed");
+		}
+		return this.result.clone();
+	}
+
+	/**
+	 * @return The number of bytes written to the archive so far.
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	@Override
+	public void write(byte[] wBuf) throws IOException {
+		this.write(wBuf, 0, wBuf.length);
+	}
+
+	@Override
+	public void write(byte[] wBuf, int wOffset, int numToWrite)
+			throws IOException {
+		this.checkSize(numToWrite);
+		this.put(wBuf, wOffset, numToWrite);
+		this.currBytes += numToWrite;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.oneBuf[0] = (byte) b;
+		this.write(this.oneBuf, 0, 1);
+	}
+
+	private void checkSize(long numToWrite) throws IOException {
+		if (this.currBytes + numToWrite > this.currSize) {
+			throw new IOException("request to write '" + numToWrite
+					+ "' bytes exceeds size in header of '" + this.currSize
+					+ "' bytes");
+		}
+	}
+
+	private void pad(int boundary) throws IOException {
+		int remainder = (int) (this.position % boundary);
+		if (remainder != 0) {
+			this.putZeros(boundary - remainder);
+		}
+	}
+
+	private void putZeros(int length) throws IOException {
+		for (int i = 0; i < length; ++i) {
+			if (!this.writeBuffer.hasRemaining()) {
+				this.flushBuffer();
+			}
+			this.writeBuffer.put((byte) 0);
+		}
+		this.position += length;
+	}
+
+	private void put(byte[] buf, int offset, int length) throws IOException {
+		this.position += length;
+
+		while (length > 0) {
+			if (!this.writeBuffer.hasRemaining()) {
+				this.flushBuffer();
+			}
+			int toPut = Math.min(length, this.writeBuffer.remaining());
+			this.writeBuffer.put(buf, offset, toPut);
+			offset += toPut;
+			length -= toPut;
+		}
+	}
+
+	private void digestRange(FileChannel source, long offset, long length)
+			throws IOException {
+		if (this.digest == null) {
+			return;
+		}
+
+		// a single direct buffer is reused, mapping each source would pile up
+		// mappings until they are garbage collected
+		if (this.digestBuffer == null) {
+			this.digestBuffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+		}
+
+		long digested = 0;
+		while (digested < length) {
+			this.digestBuffer.clear();
+			this.digestBuffer.limit((int) Math.min(DIGEST_BUFFER_SIZE,
+					length - digested));
+			int read = source.read(this.digestBuffer, offset + digested);
+			if (read < 0) {
+				throw new IOException("source truncated while digested");
+			}
+			this.digestBuffer.flip();
+			this.digest.update(this.digestBuffer);
+			digested += read;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.channel == null) {
+			throw new IOException("writing to a closed archive");
+		}
+
+		this.writeBuffer.flip();
+		if (this.digest != null) {
+			this.digest.update(this.writeBuffer.array(), 0,
+					this.writeBuffer.limit());
+		}
+		while (this.writeBuffer.hasRemaining()) {
+			this.channel.write(this.writeBuffer);
+		}
+		this.writeBuffer.clear();
+	}
+
+}
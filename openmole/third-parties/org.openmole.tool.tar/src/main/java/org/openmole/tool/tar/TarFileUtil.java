@@ -1,7 +1,7 @@
 package org.openmole.tool.tar;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 
 /**
  * These are the standard static helpers for parsing/writing the header data.
@@ -267,26 +267,18 @@ public class TarFileUtil {
 			leftIdx++;
 		} else {
 
-			// We're going to shove all the digits of the long into a byte ArrayList,
-			// then we're going to put them back in rev order into the buffer. 
-			// This isn't efficient and should probably be rewritten when I find some
-			// time.
+			// Count the octal digits, then write them from the last one
+			int digits = 0;
+			for(long val = value; val > 0; val = val >> 3) {
+				digits++;
+			}
 
-			//TODO: Optimize
-			ArrayList<Byte> vals = new ArrayList<Byte>();
 			long val = value;
-			while(val > 0) {
-				vals.add((byte) (TarConstants.ZERO_BYTE + (byte) (val & 7)));
+			for(int x = digits - 1; x >= 0; x--) {
+				buf[offset + x] = (byte) (TarConstants.ZERO_BYTE + (byte) (val & 7));
 				val = val >> 3;
 			}
-
-			// Now let's iterate in reverse through it and put it on the buffer
-			for(int x = vals.size() - 1; x >= 0; x--) {
-				buf[offset + leftIdx] = vals.get(x);
-				leftIdx++;
-			}
-			
-			vals.clear();
+			leftIdx = digits;
 		}
 
 
@@ -314,7 +306,7 @@ public class TarFileUtil {
 	 *            The number of header bytes to store.
 	 * @return The new offset (offset + length).
 	 */
-	public static int getOffBytes(StringBuffer offVal, byte[] buf, int offset,
+	public static int getOffBytes(CharSequence offVal, byte[] buf, int offset,
 			int length) {
 		int i;
 
@@ -373,25 +365,22 @@ public class TarFileUtil {
 	 */
 	public static String parseFileName(byte[] header) {
 
-		StringBuilder result = new StringBuilder(256);
-
 		// If header[345] is not equal to zero, then it is the "prefix"
 		// that 'ustar' defines. It must be prepended to the "normal"
 		// name field. We are responsible for the separating '/'.
 		//
 		if (header[345] != 0) {
-			for (int i = 345; i < 500 && header[i] != 0; ++i) {
-				result.append((char) header[i]);
-			}
-
-			result.append("/");
+			int prefixLength = nameLength(header, 345, 155);
+			int nameLength = nameLength(header, 0, 100);
+
+			byte[] result = new byte[prefixLength + 1 + nameLength];
+			System.arraycopy(header, 345, result, 0, prefixLength);
+			result[prefixLength] = '/';
+			System.arraycopy(header, 0, result, prefixLength + 1, nameLength);
+			return new String(result, StandardCharsets.ISO_8859_1);
 		}
 
-		for (int i = 0; i < 100 && header[i] != 0; ++i) {
-			result.append((char) header[i]);
-		}
-
-		return result.toString();
+		return parseName(header, 0, 100);
 	}
 
 	/**
@@ -406,17 +395,52 @@ public class TarFileUtil {
 	 * @return The header's entry name.
 	 */
 	public static String parseName(byte[] header, int offset, int length) {
-		StringBuilder result = new StringBuilder(length);
+		if (header[offset] == 0) {
+			return "";
+		}
 
-		int end = offset + length;
-		for (int i = offset; i < end; ++i) {
-			if (header[i] == 0) {
-				break;
+		return new String(header, offset, nameLength(header, offset, length),
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Parse an entry name from a header buffer, reusing a previously decoded
+	 * string when it matches the header bytes. Fields such as the user and
+	 * group names are usually identical from one entry to the next, so that
+	 * most of them are not decoded again.
+	 * 
+	 * @param cached
+	 *            A previously decoded value, may be null.
+	 * @return The header's entry name.
+	 */
+	public static String parseName(byte[] header, int offset, int length,
+			String cached) {
+		int nameLength = nameLength(header, offset, length);
+
+		if (cached != null && cached.length() == nameLength) {
+			int i = 0;
+			while (i < nameLength
+					&& cached.charAt(i) == (char) (header[offset + i] & BYTE_MASK)) {
+				++i;
+			}
+			if (i == nameLength) {
+				return cached;
 			}
-			result.append((char) header[i]);
 		}
 
-		return result.toString();
+		return new String(header, offset, nameLength,
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return The length of the NUL terminated name stored in a header field.
+	 */
+	public static int nameLength(byte[] header, int offset, int length) {
+		int i = 0;
+		while (i < length && header[offset + i] != 0) {
+			++i;
+		}
+		return i;
 	}
 
 	/**
@@ -1,14 +1,18 @@
 package org.openmole.tool.tar;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
+import org.openmole.tool.stream.ParallelGZIPOutputStream;
+
 /**
  * Outputs tar.gz files. Added functionality that it doesn't need to know the
  * size of an entry. If an entry has zero size when it is put in the Tar, then
- * it buffers it until it's closed and it knows the size.
+ * it buffers it until it's closed and it knows the size. Buffered entries are
+ * kept in memory up to a threshold and spilled to a temporary file above it.
  * 
  * This library is under the Apache License Version 2.0
  * 
@@ -22,23 +26,58 @@ import java.util.zip.GZIPOutputStream;
 public class TarGzOutputStream extends TarOutputStream {
 
 	private TarOutputStream tos = null;
-	private GZIPOutputStream gzip = null;
-	private ByteArrayOutputStream bos = null;
+	private OutputStream gzip = null;
+	private SpillingOutputStream bos = null;
 	private TarEntry currentEntry = null;
 
 	public TarGzOutputStream(OutputStream out) throws IOException {
+		this(out, 1);
+	}
+
+	/**
+	 * @param threads
+	 *            The number of threads compressing the archive. When greater
+	 *            than 1 the gzip stream is compressed by blocks in parallel.
+	 */
+	public TarGzOutputStream(OutputStream out, int threads) throws IOException {
+		this(out, threads, SpillingOutputStream.DEFAULT_THRESHOLD, null);
+	}
+
+	/**
+	 * @param threads
+	 *            The number of threads compressing the archive. When greater
+	 *            than 1 the gzip stream is compressed by blocks in parallel.
+	 * @param spillThreshold
+	 *            The size above which entries of unknown size are buffered
+	 *            on disk instead of memory.
+	 * @param spillDirectory
+	 *            The directory for the spilled entries, the default temporary
+	 *            directory if null.
+	 */
+	public TarGzOutputStream(OutputStream out, int threads, int spillThreshold,
+			Path spillDirectory) throws IOException {
 		super(null);
-		this.gzip = new GZIPOutputStream(out);
+		if (threads > 1) {
+			this.gzip = new ParallelGZIPOutputStream(out, threads,
+					ParallelGZIPOutputStream.DefaultBlockSize(),
+					Deflater.DEFAULT_COMPRESSION);
+		} else {
+			this.gzip = new GZIPOutputStream(out);
+		}
 		this.tos = new TarOutputStream(this.gzip);
-		this.bos = new ByteArrayOutputStream();
+		this.bos = new SpillingOutputStream(spillThreshold, spillDirectory);
 	}
 
 	// proxy all methods, but buffer if unknown size
 
 	@Override
 	public void close() throws IOException {
-		this.tos.close();
-		this.gzip.finish();
+		// closing the tar stream finishes and closes the gzip stream
+		try {
+			this.tos.close();
+		} finally {
+			this.bos.close();
+		}
 	}
 
 	@Override
@@ -51,7 +90,7 @@ public class TarGzOutputStream extends TarOutputStream {
 			this.bos.writeTo(this.tos);
 			this.tos.closeEntry();
 			this.currentEntry = null;
-			this.bos = new ByteArrayOutputStream();
+			this.bos.reset();
 		}
 	}
 
@@ -0,0 +1,139 @@
+package org.openmole.tool.tar;
+
+/**
+ * Flyweight read only view on a tar header record. The fields are decoded on
+ * demand from the record bytes and the view can be pointed to another record
+ * with wrap(), so readers scanning the headers of an archive don't allocate a
+ * TarEntry per entry.
+ *
+ * The view is only valid as long as the wrapped record is not modified, use
+ * toTarEntry() to keep the content of a header.
+ */
+
+public class TarHeader {
+
+	private byte[] record;
+
+	public TarHeader() {
+	}
+
+	public TarHeader(byte[] record) {
+		this.wrap(record);
+	}
+
+	/**
+	 * Point this view to a header record.
+	 *
+	 * @return This view.
+	 */
+	public TarHeader wrap(byte[] record) {
+		this.record = record;
+		return this;
+	}
+
+	/**
+	 * @return True if the record is an EOF record (only zeros).
+	 */
+	public boolean isEOF() {
+		for (int i = 0; i < TarConstants.DEFAULT_RCDSIZE; ++i) {
+			if (this.record[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getTarFormat() throws InvalidHeaderException {
+		if (this.record[257] == 'u' && this.record[258] == 's'
+				&& this.record[259] == 't' && this.record[260] == 'a'
+				&& this.record[261] == 'r') {
+			return this.record[262] == 0 ? TarEntry.USTAR_FORMAT
+					: TarEntry.GNU_FORMAT;
+		}
+
+		for (int i = 257; i < 262; ++i) {
+			if (this.record[i] != 0) {
+				throw new InvalidHeaderException(
+						"header magic is not 'ustar' or unix-style zeros");
+			}
+		}
+		return TarEntry.UNIX_FORMAT;
+	}
+
+	public String getName() {
+		return TarFileUtil.parseFileName(this.record);
+	}
+
+	/**
+	 * Compare the name of the entry to a string without decoding it.
+	 */
+	public boolean nameEquals(String name) {
+		if (this.record[345] != 0) {
+			return this.getName().equals(name);
+		}
+
+		int length = TarFileUtil.nameLength(this.record,
+				TarConstants.NAMEOFFSET, TarConstants.NAMELEN);
+		if (length != name.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < length; ++i) {
+			if ((char) (this.record[i] & 0xff) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getMode() {
+		return (int) TarFileUtil.parseOctal(this.record, 100,
+				TarConstants.MODELEN);
+	}
+
+	public long getSize() throws InvalidHeaderException {
+		if (this.getTarFormat() == TarEntry.GNU_FORMAT) {
+			return TarFileUtil.getSize(this.record, 124, TarConstants.SIZELEN);
+		}
+		return TarFileUtil.parseOctal(this.record, 124, TarConstants.SIZELEN);
+	}
+
+	/**
+	 * @return The modification time in seconds.
+	 */
+	public long getModTime() {
+		return TarFileUtil.parseOctal(this.record, 136,
+				TarConstants.MODTIMELEN);
+	}
+
+	public byte getLinkFlag() {
+		return this.record[156];
+	}
+
+	public String getLinkName() {
+		return TarFileUtil.parseName(this.record, 157, TarConstants.NAMELEN);
+	}
+
+	public boolean isDirectory() {
+		if (this.getLinkFlag() == TarConstants.LF_DIR) {
+			return true;
+		}
+
+		int length = TarFileUtil.nameLength(this.record,
+				TarConstants.NAMEOFFSET, TarConstants.NAMELEN);
+		return length > 0 && this.record[length - 1] == '/';
+	}
+
+	public boolean isGNULongNameEntry() {
+		return this.getLinkFlag() == TarConstants.LF_GNUTYPE_LONGNAME
+				&& this.nameEquals(TarConstants.GNU_LONGLINK);
+	}
+
+	/**
+	 * @return A TarEntry holding a copy of the header fields.
+	 */
+	public TarEntry toTarEntry() throws InvalidHeaderException {
+		return new TarEntry(this.record);
+	}
+
+}
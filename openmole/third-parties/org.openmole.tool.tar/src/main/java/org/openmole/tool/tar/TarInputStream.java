@@ -36,10 +36,20 @@ public class TarInputStream extends FilterInputStream {
 	private long entryOffset;
 
 	private byte[] oneBuf;
-	private byte[] readBuf;
+
+	/*
+	 * Header and data records are read into reused buffers, the bytes of the
+	 * last data record not consumed yet are readBufLength bytes of recordBuf
+	 * from readBufOffset.
+	 */
+	private byte[] headerBuf;
+	private byte[] recordBuf;
+	private int readBufOffset;
+	private int readBufLength;
 
 	private TarBuffer buffer;
 	private TarEntry currEntry;
+	private TarEntry lastEntry;
 
 	public TarInputStream(InputStream is) {
 		this(is, TarConstants.DEFAULT_BLKSIZE, TarConstants.DEFAULT_RCDSIZE);
@@ -55,7 +65,9 @@ public class TarInputStream extends FilterInputStream {
 
 		this.buffer = new TarBuffer(is, blockSize, recordSize);
 
-		this.readBuf = null;
+		this.headerBuf = new byte[recordSize];
+		this.recordBuf = new byte[recordSize];
+		this.readBufLength = 0;
 		this.oneBuf = new byte[1];
 		this.hasHitEOF = false;
 	}
@@ -156,10 +168,11 @@ public class TarInputStream extends FilterInputStream {
 
 			// Starting a new file, free up resources
 			this.currEntry = null;
-			this.readBuf = null;
+			this.readBufLength = 0;
 		}
 
-		byte[] headerBuf = this.buffer.readRecord();
+		byte[] headerBuf = this.buffer.readRecord(this.headerBuf, 0) ? this.headerBuf
+				: null;
 
 		if (headerBuf == null) {
 			if (logger.isLoggable(Level.FINEST)) {
@@ -183,7 +196,8 @@ public class TarInputStream extends FilterInputStream {
 			try {
 
 				// Create a new TarEntry
-				this.currEntry = new TarEntry(headerBuf);
+				this.currEntry = new TarEntry(headerBuf, this.lastEntry);
+				this.lastEntry = this.currEntry;
 
 				if (logger.isLoggable(Level.FINEST)) {
 					logger.log(Level.FINEST, "TarInputStream: SET CURR ENTRY '"
@@ -345,50 +359,38 @@ public class TarInputStream extends FilterInputStream {
 			numToRead = (int) (entrySize - entryOffset);
 		}
 
-		if (readBuf != null) {
-			int sz = (numToRead > readBuf.length) ? readBuf.length
+		if (readBufLength > 0) {
+			int sz = (numToRead > readBufLength) ? readBufLength
 					: numToRead;
 
-			System.arraycopy(readBuf, 0, buf, offset, sz);
+			System.arraycopy(recordBuf, readBufOffset, buf, offset, sz);
 
-			if (sz >= readBuf.length) {
-				readBuf = null;
-			} else {
-				int newLen = readBuf.length - sz;
-				byte[] newBuf = new byte[newLen];
-
-				System.arraycopy(readBuf, sz, newBuf, 0, newLen);
-
-				readBuf = newBuf;
-			}
+			readBufOffset += sz;
+			readBufLength -= sz;
 
 			totalRead += sz;
 			numToRead -= sz;
 			offset += sz;
 		}
 
-		while (numToRead > 0) {
-			byte[] rec = buffer.readRecord();
-
-			if (rec == null) {
-				// Unexpected EOF!
-				throw new IOException("unexpected EOF with " + numToRead
-						+ " bytes unread");
-			}
+		int recLen = recordBuf.length;
 
+		while (numToRead > 0) {
 			int sz = numToRead;
-			int recLen = rec.length;
 
 			if (recLen > sz) {
-				System.arraycopy(rec, 0, buf, offset, sz);
+				// Partial record, keep the remaining bytes for the next read
+				readNextRecord(recordBuf, 0, numToRead);
 
-				readBuf = new byte[recLen - sz];
+				System.arraycopy(recordBuf, 0, buf, offset, sz);
 
-				System.arraycopy(rec, sz, readBuf, 0, recLen - sz);
+				readBufOffset = sz;
+				readBufLength = recLen - sz;
 			} else {
+				// Whole record, read it straight into the caller buffer
 				sz = recLen;
 
-				System.arraycopy(rec, 0, buf, offset, recLen);
+				readNextRecord(buf, offset, numToRead);
 			}
 
 			totalRead += sz;
@@ -401,6 +403,15 @@ public class TarInputStream extends FilterInputStream {
 		return totalRead;
 	}
 
+	private void readNextRecord(byte[] record, int offset, int numToRead)
+			throws IOException {
+		if (!buffer.readRecord(record, offset)) {
+			// Unexpected EOF!
+			throw new IOException("unexpected EOF with " + numToRead
+					+ " bytes unread");
+		}
+	}
+
 	/**
 	 * Since we do not support marking just yet, we do nothing.
 	 */
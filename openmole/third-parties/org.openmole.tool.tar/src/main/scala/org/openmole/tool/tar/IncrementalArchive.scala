@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.tar
+
+import java.io.{ DataInputStream, DataOutputStream, File, IOException }
+import java.nio.channels.FileChannel
+import java.nio.file.{ Files, LinkOption, StandardCopyOption, StandardOpenOption }
+import java.security.MessageDigest
+
+import org.openmole.tool.file._
+import org.openmole.tool.stream._
+
+import scala.collection.mutable.ListBuffer
+
+/**
+ * Incremental archiving of a directory. A manifest of the entries (relative path, size, modification time, mode, link
+ * target and byte range in the archive) is kept next to the archive. When the archive is updated the byte ranges of the
+ * unchanged entries are spliced from the previous archive and only the changed entries are written.
+ *
+ * Entries are written without modification time, so an updated archive is byte-identical to an archive of the same
+ * directory built from scratch.
+ *
+ * The updates of an archive are serialised by a lock file, both between threads and between processes sharing the
+ * archive directory.
+ */
+object IncrementalArchive {
+
+  val ManifestSuffix = ".manifest"
+  val LockSuffix = ".lock"
+
+  private val ManifestMagic = 0x4f4d544d
+  private val ManifestVersion = 2
+
+  case class ManifestEntry(name: String, size: Long, lastModified: Long, mode: Int, linkFlag: Byte, linkName: String, offset: Long, length: Long) {
+    def sameFile(other: ManifestEntry) =
+      name == other.name && size == other.size && lastModified == other.lastModified && mode == other.mode && linkFlag == other.linkFlag && linkName == other.linkName
+  }
+
+  case class Manifest(archiveSize: Long, archiveLastModified: Long, digestAlgorithm: Option[String], digest: Array[Byte], entries: Vector[ManifestEntry])
+
+  /**
+   * @param identical true if the archive is byte-identical to the previous one, it has not been rewritten in this case
+   * @param written number of entries written from the files of the directory
+   * @param spliced number of entries copied from the previous archive
+   * @param digest digest of the archive, if requested
+   */
+  case class Result(archive: File, identical: Boolean, written: Int, spliced: Int, digest: Option[Array[Byte]])
+
+  def manifestFile(archive: File) = new File(archive.getParentFile, archive.getName + ManifestSuffix)
+  def lockFile(archive: File) = new File(archive.getParentFile, archive.getName + LockSuffix)
+
+  /**
+   * Create or update the archive of a directory.
+   *
+   * @param digest if defined, the digest of the archive is computed while it is written and recorded in the manifest,
+   *               it is not computed again as long as the archive is unchanged
+   * @param snapshot if defined, an immutable copy of the updated archive is made at this location before the lock is
+   *                 released, it is returned in place of the archive. It is a hard link to the archive when the file
+   *                 system allows it, which stays valid since the archive is always replaced and never written in place.
+   */
+  def update(directory: File, archive: File, digest: Option[MessageDigest] = None, snapshot: Option[File] = None): Result =
+    lockFile(archive).withLock { _ ⇒
+      val result = updateLocked(directory, archive, digest)
+      snapshot match {
+        case Some(s) ⇒
+          link(archive, s)
+          result.copy(archive = s)
+        case None ⇒ result
+      }
+    }
+
+  private def link(archive: File, snapshot: File) = {
+    Files.deleteIfExists(snapshot.toPath)
+    try Files.createLink(snapshot.toPath, archive.toPath)
+    catch {
+      case _: UnsupportedOperationException | _: IOException ⇒ Files.copy(archive.toPath, snapshot.toPath, StandardCopyOption.REPLACE_EXISTING)
+    }
+  }
+
+  private def updateLocked(directory: File, archive: File, digest: Option[MessageDigest]): Result = {
+    val files = ListBuffer[(File, TarEntry, ManifestEntry)]()
+    walkArchive(directory) { (source, entry) ⇒
+      entry.setModTime(0)
+      val lastModified = Files.getLastModifiedTime(source, LinkOption.NOFOLLOW_LINKS).toMillis
+      files += ((source, entry, ManifestEntry(entry.getName, entry.getSize, lastModified, entry.getMode, entry.getLinkFlag, entry.getLinkName, 0, 0)))
+    }
+
+    val previous = readManifest(archive)
+
+    def unchanged(manifest: Manifest) =
+      manifest.entries.size == files.size && (manifest.entries zip files).forall { case (p, (_, _, c)) ⇒ p.sameFile(c) }
+
+    // an unchanged archive without the requested digest is spliced entirely, the digest is computed on the way
+    def digested(manifest: Manifest) = digest.forall(md ⇒ manifest.digestAlgorithm.contains(md.getAlgorithm))
+
+    previous match {
+      case Some(manifest) if unchanged(manifest) && digested(manifest) ⇒
+        Result(archive, identical = true, written = 0, spliced = files.size, digest.map(_ ⇒ manifest.digest))
+      case _ ⇒ write(archive, files.toVector, previous, digest)
+    }
+  }
+
+  private def write(archive: File, files: Vector[(File, TarEntry, ManifestEntry)], previous: Option[Manifest], digest: Option[MessageDigest]) = {
+    val previousEntries = previous.toSeq.flatMap(_.entries).map(e ⇒ e.name → e).toMap
+    val entries = ListBuffer[ManifestEntry]()
+    var written = 0
+    var spliced = 0
+    var archiveDigest: Option[Array[Byte]] = None
+
+    val tmp = Files.createTempFile(archive.getParentFile.toPath, archive.getName, ".tmp")
+    try {
+      val previousChannel = previous.map(_ ⇒ FileChannel.open(archive.toPath, StandardOpenOption.READ))
+      try {
+        // the spliced ranges are digested as well, the archive is digested in a single pass
+        val tos = digest match {
+          case Some(md) ⇒ new TarFileOutputStream(tmp, md)
+          case None     ⇒ new TarFileOutputStream(tmp)
+        }
+        try {
+          // contiguous unchanged entries are spliced in a single transfer
+          var run: Option[(Long, Long)] = None
+
+          def spliceRun() = {
+            run.foreach { case (offset, length) ⇒ tos.splice(previousChannel.get, offset, length) }
+            run = None
+          }
+
+          def position = tos.getPosition + run.map(_._2).getOrElse(0L)
+
+          for ((source, entry, current) ← files) {
+            val offset = position
+            previousEntries.get(current.name).filter(_.sameFile(current)) match {
+              case Some(p) ⇒
+                run = run match {
+                  case Some((o, l)) if o + l == p.offset ⇒ Some((o, l + p.length))
+                  case _                                 ⇒ spliceRun(); Some((p.offset, p.length))
+                }
+                entries += current.copy(offset = offset, length = p.length)
+                spliced += 1
+              case None ⇒
+                spliceRun()
+                tos.putNextEntry(entry)
+                if (Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) try tos.transferFrom(source.toPath)
+                finally tos.closeEntry
+                entries += current.copy(offset = offset, length = tos.getPosition - offset)
+                written += 1
+            }
+          }
+
+          spliceRun()
+        }
+        finally tos.close()
+
+        archiveDigest = digest.map(_ ⇒ tos.getDigest)
+      }
+      finally previousChannel.foreach(_.close())
+
+      Files.move(tmp, archive.toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+    catch {
+      case t: Throwable ⇒
+        Files.deleteIfExists(tmp)
+        throw t
+    }
+
+    writeManifest(archive, Manifest(archive.length, archive.lastModified, digest.map(_.getAlgorithm), archiveDigest.getOrElse(Array.empty), entries.toVector))
+    Result(archive, identical = false, written = written, spliced = spliced, archiveDigest)
+  }
+
+  /**
+   * Read the manifest of an archive, None if there is no usable manifest or if the archive has been modified since.
+   */
+  def readManifest(archive: File): Option[Manifest] = {
+    val manifest = manifestFile(archive)
+    if (!manifest.exists || !archive.exists) None
+    else
+      try withClosable(new DataInputStream(manifest.bufferedInputStream)) { in ⇒
+        if (in.readInt != ManifestMagic || in.readInt != ManifestVersion) None
+        else {
+          val archiveSize = in.readLong
+          val archiveLastModified = in.readLong
+          if (archiveSize != archive.length || archiveLastModified != archive.lastModified) None
+          else {
+            val algorithm = in.readUTF
+            val digest = new Array[Byte](in.readInt)
+            in.readFully(digest)
+            val entries =
+              Vector.fill(in.readInt) {
+                ManifestEntry(in.readUTF, in.readLong, in.readLong, in.readInt, in.readByte, in.readUTF, in.readLong, in.readLong)
+              }
+            Some(Manifest(archiveSize, archiveLastModified, if (algorithm.isEmpty) None else Some(algorithm), digest, entries))
+          }
+        }
+      }
+      catch {
+        case e: IOException ⇒ None
+      }
+  }
+
+  private def writeManifest(archive: File, manifest: Manifest) = {
+    val file = manifestFile(archive)
+    val tmp = Files.createTempFile(file.getParentFile.toPath, file.getName, ".tmp").toFile
+
+    try withClosable(new DataOutputStream(tmp.bufferedOutputStream())) { out ⇒
+      out.writeInt(ManifestMagic)
+      out.writeInt(ManifestVersion)
+      out.writeLong(manifest.archiveSize)
+      out.writeLong(manifest.archiveLastModified)
+      out.writeUTF(manifest.digestAlgorithm.getOrElse(""))
+      out.writeInt(manifest.digest.length)
+      out.write(manifest.digest)
+      out.writeInt(manifest.entries.size)
+      for (e ← manifest.entries) {
+        out.writeUTF(e.name)
+        out.writeLong(e.size)
+        out.writeLong(e.lastModified)
+        out.writeInt(e.mode)
+        out.writeByte(e.linkFlag)
+        out.writeUTF(e.linkName)
+        out.writeLong(e.offset)
+        out.writeLong(e.length)
+      }
+    }
+    catch {
+      case t: Throwable ⇒
+        tmp.delete()
+        throw t
+    }
+
+    Files.move(tmp.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+
+}
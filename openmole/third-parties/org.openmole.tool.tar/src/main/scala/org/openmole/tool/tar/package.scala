@@ -18,6 +18,8 @@ package org.openmole.tool
 
 import java.io.{ IOException, File }
 import java.nio.file._
+import java.security.MessageDigest
+import java.util.concurrent.{ Callable, ExecutionException, ExecutorService, FutureTask, Semaphore }
 import org.openmole.tool.file._
 import org.openmole.tool.stream._
 import scala.collection.mutable.{ Stack, ListBuffer }
@@ -25,13 +27,15 @@ import scala.collection.JavaConverters._
 
 package object tar {
 
+  val DefaultExtractionBufferSize = 64 * 1024 * 1024
+
   implicit class TarOutputStreamDecorator(tos: TarOutputStream) {
     def addFile(f: File, name: String) = {
       val entry = new TarEntry(name)
       entry.setSize(Files.size(f))
       entry.setMode(f.mode)
       tos.putNextEntry(entry)
-      try Files.copy(f, tos) finally tos.closeEntry
+      try copyContent(f, tos) finally tos.closeEntry
     }
 
     def archive(directory: File, time: Boolean = true, includeTopDirectoryName: Boolean = false) =
@@ -53,67 +57,161 @@ package object tar {
     finally tis.close
 
     // new model using NIO
-    def extract(directory: File, overwrite: Boolean = false) = {
+    def extract(directory: File, overwrite: Boolean = false) =
+      extractEntries(directory, entries) { (e, dest) ⇒
+        // file copy from an InputStream does not support COPY_ATTRIBUTES, nor NOFOLLOW_LINKS
+        Files.copy(tis, dest, Seq(StandardCopyOption.REPLACE_EXISTING).filter { _ ⇒ overwrite }: _*)
+        dest.toFile.mode = e.getMode
+      }
 
-      if (!directory.exists()) directory.mkdirs()
-      if (!Files.isDirectory(directory)) throw new IOException(directory.toString + " is not a directory.")
+    /**
+     * Extract the archive with a pipeline: the calling thread decompresses, parses the headers and creates
+     * the directories while the threads of the pool write the file contents. At most bufferSize bytes of entry
+     * content are held in memory, larger entries are written directly by the calling thread. The writes to a
+     * same path are applied in archive order. The calling thread performs itself the writes the pool has not
+     * started when it has to wait for them, so that the extraction progresses even if the pool is busy.
+     */
+    def extractParallel(directory: File, overwrite: Boolean = false, bufferSize: Int = DefaultExtractionBufferSize)(implicit pool: ExecutorService) = {
 
-      val directoryRights = ListBuffer[(Path, Int)]()
+      // the writes not awaited yet, in archive order and by path
+      val writes = new java.util.ArrayDeque[(Path, FutureTask[Unit])]()
+      val pending = collection.mutable.HashMap[Path, FutureTask[Unit]]()
+      val buffered = new Semaphore(bufferSize)
 
-      Iterator.continually(tis.getNextEntry).takeWhile(_ != null).foreach {
-        e ⇒
-          val dest = Paths.get(directory.toString, e.getName)
-          if (e.isDirectory) {
-            Files.createDirectories(dest)
-            directoryRights += (dest -> e.getMode)
+      val openOptions =
+        if (overwrite) Seq(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+        else Seq(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+
+      def await(write: FutureTask[Unit]) =
+        try {
+          write.run()
+          write.get
+        }
+        catch {
+          case e: ExecutionException ⇒ throw e.getCause
+        }
+
+      def awaitFirst() = {
+        val (path, write) = writes.removeFirst()
+        if (pending.get(path).exists(_ eq write)) pending.remove(path)
+        await(write)
+      }
+
+      def write(dest: Path, content: Array[Byte], mode: Int) = new Callable[Unit] {
+        override def call(): Unit =
+          try {
+            Files.write(dest, content, openOptions: _*)
+            dest.toFile.mode = mode
           }
-          else {
-            Files.createDirectories(dest.getParent)
-
-            // has the entry been marked as a symlink in the archive?
-            if (!e.getLinkName.isEmpty) Files.createSymbolicLink(dest, Paths.get(e.getLinkName))
-            // file copy from an InputStream does not support COPY_ATTRIBUTES, nor NOFOLLOW_LINKS
-            else {
-              Files.copy(tis, dest, Seq(StandardCopyOption.REPLACE_EXISTING).filter { _ ⇒ overwrite }: _*)
-              dest.toFile.mode = e.getMode
+          finally buffered.release(content.length)
+      }
+
+      def writeFile(e: TarEntry, dest: Path) = {
+        while (!writes.isEmpty && writes.peekFirst()._2.isDone) awaitFirst()
+        pending.remove(dest).foreach(await)
+
+        if (e.getSize > bufferSize) {
+          Files.copy(tis, dest, Seq(StandardCopyOption.REPLACE_EXISTING).filter { _ ⇒ overwrite }: _*)
+          dest.toFile.mode = e.getMode
+        }
+        else {
+          val size = e.getSize.toInt
+          // the permits are released by the writes, every permit is available once they are all done
+          while (!buffered.tryAcquire(size)) awaitFirst()
+          val content = new Array[Byte](size)
+
+          var read = 0
+          while (read < size) {
+            val r = tis.read(content, read, size - read)
+            if (r == -1) {
+              buffered.release(size)
+              throw new IOException(s"Unexpected end of entry ${e.getName}, read $read bytes out of $size")
             }
+            read += r
           }
-      }
 
-      // Set directory right after extraction in case some directory are not writable
-      for {
-        (path, mode) ← directoryRights
-      } path.toFile.mode = mode
+          val task = new FutureTask(write(dest, content, e.getMode))
+          pool.execute(task)
+          writes.addLast(dest → task)
+          pending(dest) = task
+        }
+      }
 
+      try extractEntries(directory, entries, () ⇒ while (!writes.isEmpty) awaitFirst())(writeFile)
+      catch {
+        case t: Throwable ⇒
+          writes.asScala.foreach(_._2.cancel(true))
+          throw t
+      }
     }
+
+    private def entries = Iterator.continually(tis.getNextEntry).takeWhile(_ != null)
+  }
+
+  implicit class TarFileDecorator(tarFile: TarFile) {
+
+    /** Extract all the entries, the content of the files is transferred from the archive without going through the java heap */
+    def extract(directory: File, overwrite: Boolean = false) =
+      extractEntries(directory, tarFile.getNames.asScala.iterator.map(tarFile.getTarEntry)) { (e, dest) ⇒
+        if (!overwrite && Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) throw new FileAlreadyExistsException(dest.toString)
+        tarFile.extract(e.getName, dest)
+        dest.toFile.mode = e.getMode
+      }
   }
 
   implicit class FileTarArchiveDecorator(file: File) {
 
     def archive(dest: File, time: Boolean = true) =
-      withClosable(new TarOutputStream(dest.bufferedOutputStream())) {
+      withClosable(new TarFileOutputStream(dest.toPath)) {
         _.archive(file, time)
       }
 
+    /** Archive to dest and return the digest of the archive computed in the same pass */
+    def archiveAndDigest(dest: File, digest: MessageDigest, time: Boolean = true): Array[Byte] = {
+      val tos = new TarFileOutputStream(dest.toPath, digest)
+      try tos.archive(file, time)
+      finally tos.close()
+      tos.getDigest
+    }
+
+    /** Digest of the archive of this directory, the archive itself is not written anywhere */
+    def archiveDigest(digest: MessageDigest, time: Boolean = true): Array[Byte] = {
+      val tos = new DigestTarOutputStream(digest)
+      try tos.archive(file, time)
+      finally tos.close()
+      tos.getDigest
+    }
+
     //FIXME method name is ambiguous rename
-    def archiveCompress(dest: File, time: Boolean = true) =
-      withClosable(new TarOutputStream(dest.gzippedBufferedOutputStream)) {
+    def archiveCompress(dest: File, time: Boolean = true, parallelism: Option[CompressionCodec.Parallelism] = None, codec: CompressionCodec = CompressionCodec.GZip) =
+      withClosable(new TarOutputStream(dest.bufferedOutputStream().compress(codec, parallelism))) {
         _.archive(file, time)
       }
 
     def extract(dest: File, overwrite: Boolean = false) =
-      withClosable(new TarInputStream(file.bufferedInputStream)) {
-        _.extract(dest, overwrite)
-      }
+      withClosable(new TarInputStream(file.bufferedInputStream)) { _.extract(dest, overwrite) }
 
+    // the compression codec is detected from the archive magic bytes
     def extractUncompress(dest: File, overwrite: Boolean = false) =
-      withClosable(new TarInputStream(file.gzippedBufferedInputStream)) {
-        _.extract(dest, overwrite)
-      }
+      withClosable(new TarInputStream(file.bufferedInputStream.uncompressed)) { _.extract(dest, overwrite) }
+
+    /** Extract with the file contents written by the threads of the pool */
+    def extractParallel(dest: File, overwrite: Boolean = false)(implicit pool: ExecutorService) =
+      withClosable(new TarInputStream(file.bufferedInputStream)) { _.extractParallel(dest, overwrite) }
+
+    def extractUncompressParallel(dest: File, overwrite: Boolean = false)(implicit pool: ExecutorService) =
+      withClosable(new TarInputStream(file.bufferedInputStream.uncompressed)) { _.extractParallel(dest, overwrite) }
+
+    /** Random access to the entries of an uncompressed archive, the index may be persisted next to the archive */
+    def withTarFile[T](f: TarFile ⇒ T, sidecarIndex: Boolean = false): T =
+      withClosable(new TarFile(file.toPath, sidecarIndex))(f)
 
-    def copyCompress(toF: File): File = {
-      if (toF.isDirectory) file.archiveCompress(toF)
-      else file.copyCompressFile(toF)
+    def extractEntry(name: String, dest: File, sidecarIndex: Boolean = false) =
+      withTarFile(_.extract(name, dest.toPath), sidecarIndex)
+
+    def copyCompress(toF: File, parallelism: Option[CompressionCodec.Parallelism] = None, codec: CompressionCodec = CompressionCodec.GZip): File = {
+      if (toF.isDirectory) file.archiveCompress(toF, parallelism = parallelism, codec = codec)
+      else file.copyCompressFile(toF, parallelism, codec)
       toF
     }
 
@@ -121,9 +219,65 @@ package object tar {
 
     def withTarOutputStream[T] = withClosable[TarOutputStream, T](new TarOutputStream(file.bufferedOutputStream()))(_)
     def withTarGZOutputStream[T] = withClosable[TarOutputStream, T](new TarOutputStream(file.bufferedOutputStream().toGZ))(_)
+    def withParallelTarGZOutputStream[T](pool: ExecutorService, threads: Int) = withClosable[TarOutputStream, T](new TarOutputStream(file.parallelGzippedBufferedOutputStream(pool, threads)))(_)
+    def withCompressedTarOutputStream[T](codec: CompressionCodec, parallelism: Option[CompressionCodec.Parallelism] = None) = withClosable[TarOutputStream, T](new TarOutputStream(file.bufferedOutputStream().compress(codec, parallelism)))(_)
   }
 
-  private def createDirArchiveWithRelativePathWithAdditionalCommand(tos: TarOutputStream, directory: File, additionalCommand: TarEntry ⇒ Unit, includeDirectoryName: Boolean) = {
+  /**
+   * Extract entries to a directory: create the directories and the symbolic links, the files are written and their
+   * rights set by writeFile. The rights of the directories are set once the files have been written, after
+   * awaitFiles returns.
+   */
+  private def extractEntries(directory: File, entries: Iterator[TarEntry], awaitFiles: () ⇒ Unit = () ⇒ ())(writeFile: (TarEntry, Path) ⇒ Unit) = {
+
+    if (!directory.exists()) directory.mkdirs()
+    if (!Files.isDirectory(directory)) throw new IOException(directory.toString + " is not a directory.")
+
+    val directoryRights = ListBuffer[(Path, Int)]()
+
+    entries.foreach {
+      e ⇒
+        val dest = Paths.get(directory.toString, e.getName)
+        if (e.isDirectory) {
+          Files.createDirectories(dest)
+          directoryRights += (dest -> e.getMode)
+        }
+        else {
+          Files.createDirectories(dest.getParent)
+
+          // has the entry been marked as a symlink in the archive?
+          if (!e.getLinkName.isEmpty) Files.createSymbolicLink(dest, Paths.get(e.getLinkName))
+          else writeFile(e, dest)
+        }
+    }
+
+    awaitFiles()
+
+    // Set directory right after extraction in case some directory are not writable
+    for {
+      (path, mode) ← directoryRights
+    } path.toFile.mode = mode
+  }
+
+  // bypass the java heap when the archive is written directly to a file
+  private def copyContent(source: Path, tos: TarOutputStream) =
+    tos match {
+      case tfos: TarFileOutputStream ⇒ tfos.transferFrom(source)
+      case _                         ⇒ Files.copy(source, tos)
+    }
+
+  private def createDirArchiveWithRelativePathWithAdditionalCommand(tos: TarOutputStream, directory: File, additionalCommand: TarEntry ⇒ Unit, includeDirectoryName: Boolean) =
+    walkArchive(directory, includeDirectoryName) { (source, e) ⇒
+      additionalCommand(e)
+      tos.putNextEntry(e)
+      if (Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) try copyContent(source, tos)
+      finally tos.closeEntry
+    }
+
+  /**
+   * Walk a directory in archive order and build the entry of each file, with its mode set
+   */
+  private[tar] def walkArchive(directory: File, includeDirectoryName: Boolean = false)(f: (File, TarEntry) ⇒ Unit) = {
 
     if (!Files.isDirectory(directory)) throw new IOException(directory.toString + " is not a directory.")
 
@@ -163,13 +317,10 @@ package object tar {
           e
         }
 
-      // complete current entry by fixing its modes and writing it to the archive
+      // complete current entry by fixing its modes
       if (source != directory) {
         if (!isSymbolicLink) e.setMode(source.mode)
-        additionalCommand(e)
-        tos.putNextEntry(e)
-        if (Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) try Files.copy(source, tos)
-        finally tos.closeEntry
+        f(source, e)
       }
     }
   }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.tar
+
+import java.io.File
+import java.nio.file.Files
+import java.security.MessageDigest
+
+import org.openmole.tool.file._
+import org.scalatest._
+
+class IncrementalArchiveSpec extends FlatSpec with Matchers {
+
+  def withTmpDir[T](f: File ⇒ T): T = {
+    val dir = Files.createTempDirectory("incrementalarchive").toFile
+    try f(dir)
+    finally dir.recursiveDelete
+  }
+
+  def sha1 = MessageDigest.getInstance("SHA-1")
+
+  /** Check the archive against an archive of the same directory built from scratch */
+  def checkUpdate(tmp: File, source: File, archive: File) = {
+    val result = IncrementalArchive.update(source, archive, Some(sha1))
+
+    val fresh = tmp / "fresh.tar"
+    fresh.delete()
+    source.archive(fresh, time = false)
+
+    Files.readAllBytes(archive.toPath) should equal(Files.readAllBytes(fresh.toPath))
+    result.digest.get should equal(sha1.digest(Files.readAllBytes(fresh.toPath)))
+    result
+  }
+
+  "An incremental archive" should "be identical to a new archive after each update" in withTmpDir { tmp ⇒
+    val source = tmp / "source"
+    (source / "a" / "b").mkdirs()
+    (source / "a" / "one.txt").content = "one"
+    (source / "a" / "b" / "two.txt").content = "two"
+    (source / "three.txt").content = "three"
+    Files.createSymbolicLink((source / "link").toPath, new File("three.txt").toPath)
+
+    val archive = tmp / "archive.tar"
+
+    val created = checkUpdate(tmp, source, archive)
+    created.identical should equal(false)
+
+    val unchanged = checkUpdate(tmp, source, archive)
+    unchanged.identical should equal(true)
+    unchanged.written should equal(0)
+
+    // add
+    (source / "a" / "b" / "four.txt").content = "four"
+    checkUpdate(tmp, source, archive).written should equal(1)
+
+    // modify
+    (source / "a" / "one.txt").content = "one modified"
+    (source / "a" / "one.txt").setLastModified(System.currentTimeMillis + 10000)
+    checkUpdate(tmp, source, archive).written should equal(1)
+
+    // delete
+    (source / "three.txt").delete()
+    checkUpdate(tmp, source, archive).written should equal(0)
+
+    // retarget a link
+    (source / "link").delete()
+    Files.createSymbolicLink((source / "link").toPath, new File("a/one.txt").toPath)
+    checkUpdate(tmp, source, archive).written should equal(1)
+  }
+
+  it should "compute the digest of an unchanged archive for a new algorithm" in withTmpDir { tmp ⇒
+    val source = tmp / "source"
+    source.mkdirs()
+    (source / "file.txt").content = "content"
+
+    val archive = tmp / "archive.tar"
+    IncrementalArchive.update(source, archive)
+
+    val result = IncrementalArchive.update(source, archive, Some(sha1))
+    result.digest.get should equal(sha1.digest(Files.readAllBytes(archive.toPath)))
+  }
+
+}
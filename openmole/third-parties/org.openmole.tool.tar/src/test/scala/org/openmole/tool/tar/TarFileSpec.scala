@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Romain Reuillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmole.tool.tar
+
+import java.io.{ File, IOException }
+import java.nio.channels.FileChannel
+import java.nio.file.{ Files, StandardOpenOption }
+import java.util.concurrent.Executors
+
+import org.openmole.tool.file._
+import org.openmole.tool.stream._
+import org.scalatest._
+
+import scala.collection.JavaConverters._
+import scala.io.Source
+
+class TarFileSpec extends FlatSpec with Matchers {
+
+  def withTmpDir[T](f: File ⇒ T): T = {
+    val dir = Files.createTempDirectory("tarfile").toFile
+    try f(dir)
+    finally dir.recursiveDelete
+  }
+
+  "An archive" should "be extracted by random access as it was archived" in withTmpDir { tmp ⇒
+    val source = tmp / "source"
+    (source / "a" / "b").mkdirs()
+    (source / "file.txt").content = "file content"
+    (source / "a" / "b" / ("long" * 40)).content = "long name content"
+    (source / "a" / "exec.sh").content = "#!/bin/sh"
+    (source / "a" / "exec.sh").setExecutable(true)
+
+    val archive = tmp / "archive.tar"
+    source.archive(archive)
+
+    val extracted = tmp / "extracted"
+    archive.withTarFile(_.extract(extracted))
+
+    (extracted / "file.txt").content should equal("file content")
+    (extracted / "a" / "b" / ("long" * 40)).content should equal("long name content")
+    (extracted / "a" / "exec.sh").content should equal("#!/bin/sh")
+    (extracted / "a" / "exec.sh").canExecute should equal(true)
+  }
+
+  "A GNU long name" should "be read as it was written" in withTmpDir { tmp ⇒
+    val name = "dir/" + ("é" * 120) + ".txt"
+    val content = "content".getBytes
+
+    val archive = tmp / "archive.tar"
+    withClosable(new TarFileOutputStream(archive.toPath)) { tos ⇒
+      val entry = new TarEntry(name)
+      entry.setSize(content.length)
+      tos.putNextEntry(entry)
+      tos.write(content)
+      tos.closeEntry()
+    }
+
+    archive.withTarFile { tarFile ⇒
+      tarFile.getNames.asScala.toSeq should equal(Seq(name))
+      withClosable(tarFile.getInputStream(name))(Source.fromInputStream(_).mkString) should equal("content")
+    }
+  }
+
+  "A parallel extraction" should "apply the writes to a same path in archive order" in withTmpDir { tmp ⇒
+    val archive = tmp / "archive.tar"
+    withClosable(new TarOutputStream(archive.bufferedOutputStream())) { tos ⇒
+      for (content ← Seq("first", "second")) {
+        val entry = new TarEntry("file.txt")
+        entry.setSize(content.length)
+        tos.putNextEntry(entry)
+        tos.write(content.getBytes)
+        tos.closeEntry()
+      }
+    }
+
+    implicit val pool = Executors.newFixedThreadPool(4)
+    try {
+      val extracted = tmp / "extracted"
+      archive.extractParallel(extracted, overwrite = true)
+      (extracted / "file.txt").content should equal("second")
+    }
+    finally pool.shutdown()
+  }
+
+  "A truncated archive" should "fail to be extracted" in withTmpDir { tmp ⇒
+    val source = tmp / "source"
+    source.mkdirs()
+    (source / "file.bin").content = "x" * 10000
+
+    val archive = tmp / "archive.tar"
+    source.archive(archive)
+    withClosable(FileChannel.open(archive.toPath, StandardOpenOption.WRITE))(_.truncate(2048))
+
+    an[IOException] should be thrownBy archive.withTarFile(_.extract(tmp / "extracted"))
+  }
+
+}